@@ -0,0 +1,20 @@
+-- Counts a reused attachment upload (POST /api/uploads/by-hash/:sha256/reuse)
+-- Run this in Supabase SQL Editor, after add-attachment-blobs-table.sql
+
+-- A single UPDATE, so concurrent reuses of the same copy can't lose a count.
+-- Returns the stored copy, or no row if this user never uploaded these bytes.
+CREATE OR REPLACE FUNCTION count_attachment_blob_reuse(p_user_id TEXT, p_sha256 TEXT)
+RETURNS SETOF attachment_blobs AS $$
+    UPDATE attachment_blobs
+    SET reuse_count = reuse_count + 1,
+        bytes_saved = bytes_saved + file_size,
+        last_used_at = NOW()
+    WHERE user_id = p_user_id
+    AND sha256 = p_sha256
+    RETURNING *;
+$$ language 'sql';
+
+-- Verify the function was added
+SELECT routine_name
+FROM information_schema.routines
+WHERE routine_name = 'count_attachment_blob_reuse';
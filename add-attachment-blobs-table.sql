@@ -0,0 +1,22 @@
+-- Content-addressed attachment uploads: one stored copy per user and SHA-256
+-- Run this in Supabase SQL Editor
+
+CREATE TABLE IF NOT EXISTS attachment_blobs (
+    user_id TEXT NOT NULL, -- Firebase UID
+    sha256 TEXT NOT NULL, -- Lower-case hex digest of the file contents
+    file_size BIGINT NOT NULL,
+    file_path TEXT NOT NULL, -- Path in the 'Note app' storage bucket
+    file_url TEXT NOT NULL,
+    reuse_count INTEGER NOT NULL DEFAULT 0, -- Uploads skipped because this copy existed
+    bytes_saved BIGINT NOT NULL DEFAULT 0, -- reuse_count * file_size, kept for reporting
+    created_at TIMESTAMPTZ DEFAULT NOW(),
+    last_used_at TIMESTAMPTZ DEFAULT NOW(),
+    PRIMARY KEY (user_id, sha256)
+);
+
+-- Only the server (service role) reads and writes this table
+ALTER TABLE attachment_blobs ENABLE ROW LEVEL SECURITY;
+
+-- Bandwidth and storage saved per user
+-- SELECT user_id, SUM(reuse_count) AS reused_uploads, SUM(bytes_saved) AS bytes_saved
+-- FROM attachment_blobs GROUP BY user_id ORDER BY bytes_saved DESC;
@@ -0,0 +1,31 @@
+-- SHA-256 of each note's content, for content patches (PUT /api/notes/:id with "patch")
+-- Run this in Supabase SQL Editor
+
+-- Hex digest of the UTF-8 content, the same value the Android client sends as patch.base.
+-- The server only writes a patch while this still matches, so two patches against the
+-- same base can't both succeed.
+ALTER TABLE notes ADD COLUMN IF NOT EXISTS content_sha256 TEXT;
+
+CREATE OR REPLACE FUNCTION set_notes_content_sha256()
+RETURNS TRIGGER AS $$
+BEGIN
+    NEW.content_sha256 = encode(sha256(convert_to(coalesce(NEW.content, ''), 'UTF8')), 'hex');
+    RETURN NEW;
+END;
+$$ language 'plpgsql';
+
+DROP TRIGGER IF EXISTS set_notes_content_sha256 ON notes;
+CREATE TRIGGER set_notes_content_sha256
+    BEFORE INSERT OR UPDATE OF content ON notes
+    FOR EACH ROW
+    EXECUTE FUNCTION set_notes_content_sha256();
+
+-- Backfill existing notes
+UPDATE notes SET content_sha256 = encode(sha256(convert_to(coalesce(content, ''), 'UTF8')), 'hex')
+WHERE content_sha256 IS NULL;
+
+-- Verify the column was added
+SELECT column_name, data_type
+FROM information_schema.columns
+WHERE table_name = 'notes'
+AND column_name = 'content_sha256';
@@ -0,0 +1,5 @@
+-- Index for keyset pagination of GET /api/notes?limit=...&cursor=...
+-- Run this in Supabase SQL Editor
+
+-- Matches the page query: WHERE user_id = ? ORDER BY created_at DESC, id DESC
+CREATE INDEX IF NOT EXISTS idx_notes_user_created_id ON notes(user_id, created_at DESC, id DESC);
@@ -0,0 +1,12 @@
+-- Short preview of each note's content for the list view (GET /api/notes?view=summary)
+-- Run this in Supabase SQL Editor
+
+-- Kept in sync by Postgres; the list no longer has to download full note bodies
+ALTER TABLE notes
+ADD COLUMN IF NOT EXISTS preview TEXT GENERATED ALWAYS AS (left(content, 200)) STORED;
+
+-- Verify the column was added
+SELECT column_name, data_type, generation_expression
+FROM information_schema.columns
+WHERE table_name = 'notes'
+AND column_name = 'preview';
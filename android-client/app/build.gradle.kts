@@ -18,7 +18,11 @@ android {
     }
 
     buildTypes {
+        debug {
+            buildConfigField("String", "HTTP_LOG_LEVEL", "\"BODY\"")
+        }
         release {
+            buildConfigField("String", "HTTP_LOG_LEVEL", "\"NONE\"")
             isMinifyEnabled = false
             proguardFiles(
                 getDefaultProguardFile("proguard-android-optimize.txt"),
@@ -34,6 +38,7 @@ android {
     
     buildFeatures {
         viewBinding = true
+        buildConfig = true
     }
 }
 
@@ -46,6 +51,7 @@ dependencies {
     implementation("androidx.recyclerview:recyclerview:1.3.2")
     implementation("androidx.cardview:cardview:1.0.0")
     implementation("androidx.swiperefreshlayout:swiperefreshlayout:1.1.0")
+    implementation("androidx.lifecycle:lifecycle-viewmodel:2.6.1")
     
     // Firebase
     implementation(platform("com.google.firebase:firebase-bom:33.7.0"))
@@ -55,11 +61,12 @@ dependencies {
     
     // Networking
     implementation("com.squareup.okhttp3:okhttp:4.12.0")
-    implementation("com.squareup.okhttp3:logging-interceptor:4.12.0")
     implementation("com.google.code.gson:gson:2.11.0")
     
     // Image Loading
     implementation("com.github.bumptech.glide:glide:4.16.0")
+    // Generates the glue that applies NoteGlideModule
+    annotationProcessor("com.github.bumptech.glide:compiler:4.16.0")
     
     // Testing
     testImplementation("junit:junit:4.13.2")
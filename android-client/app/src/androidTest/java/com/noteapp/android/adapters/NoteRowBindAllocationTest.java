@@ -0,0 +1,162 @@
+package com.noteapp.android.adapters;
+
+import static org.junit.Assert.assertTrue;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Debug;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.noteapp.android.R;
+import com.noteapp.android.models.Note;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Objects allocated per notes-list bind, before and after rows were precomputed as
+ * {@link NoteRowModel}s. "Before" is the bind code as it was until then, kept here
+ * as {@link LegacyBinder}; "after" is {@link NotesAdapter}'s own bind. Both rebind
+ * every field of the same inflated item_note rows on the main thread.
+ *
+ * Run with {@code ./gradlew connectedDebugAndroidTest}; the per-bind averages are
+ * logged (tag NoteRowBindAllocation) and reported as instrumentation status.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NoteRowBindAllocationTest {
+    private static final String TAG = "NoteRowBindAllocation";
+    private static final int ROWS = 50;
+    private static final int WARMUP_BINDS = 500;
+    private static final int MEASURED_BINDS = 5000;
+
+    @Test
+    public void precomputedRowsAllocateLessPerBind() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = instrumentation.getTargetContext();
+        List<Note> notes = notes();
+        List<NoteRowModel> rows = new NoteRowMapper().map(notes);
+        double[] perBind = new double[2];
+
+        instrumentation.runOnMainSync(() -> {
+            FrameLayout parent = new FrameLayout(context);
+            LegacyBinder legacy = new LegacyBinder(
+                    LayoutInflater.from(context).inflate(R.layout.item_note, parent, false));
+            perBind[0] = allocationsPerBind(position -> legacy.bind(notes.get(position % ROWS)));
+
+            NotesAdapter adapter = new NotesAdapter(new NotesAdapter.OnNoteClickListener() {
+                @Override
+                public void onNoteClick(Note note) {
+                }
+
+                @Override
+                public void onNoteLongClick(Note note) {
+                }
+            });
+            // The first list is applied synchronously, with no diff
+            adapter.submitList(rows);
+            NotesAdapter.NoteViewHolder holder = adapter.onCreateViewHolder(parent, 0);
+            perBind[1] = allocationsPerBind(position -> adapter.onBindViewHolder(holder, position % ROWS));
+        });
+
+        String result = String.format(Locale.US, "allocations per bind: before %.1f, after %.1f",
+                perBind[0], perBind[1]);
+        Log.i(TAG, result);
+        Bundle status = new Bundle();
+        status.putString("allocations", result);
+        instrumentation.sendStatus(0, status);
+        assertTrue(result, perBind[1] < perBind[0]);
+    }
+
+    private interface Bind {
+        void run(int position);
+    }
+
+    // Thread allocation count averaged over MEASURED_BINDS binds, after a warmup
+    @SuppressWarnings("deprecation")
+    private static double allocationsPerBind(Bind bind) {
+        for (int i = 0; i < WARMUP_BINDS; i++) {
+            bind.run(i);
+        }
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < MEASURED_BINDS; i++) {
+                bind.run(i);
+            }
+            return Debug.getThreadAllocCount() / (double) MEASURED_BINDS;
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    // Varied rows, a third with an attachment; none are images, so Glide only ever clears
+    private static List<Note> notes() {
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            Note note = new Note("Note " + i, "Body of note " + i);
+            note.setId(i + 1);
+            note.setPreview("Body of note " + i);
+            note.setCreatedAt(String.format(Locale.US, "2024-05-%02dT09:30:00.000000+00:00", i % 28 + 1));
+            note.setFileName(i % 3 == 0 ? "report-" + i + ".pdf" : null);
+            notes.add(note);
+        }
+        return notes;
+    }
+
+    // NotesAdapter.NoteViewHolder's bind before rows were precomputed
+    private static class LegacyBinder {
+        private final View itemView;
+        private final TextView titleText;
+        private final TextView contentText;
+        private final TextView dateText;
+        private final TextView attachmentIndicator;
+
+        LegacyBinder(View itemView) {
+            this.itemView = itemView;
+            titleText = itemView.findViewById(R.id.note_title);
+            contentText = itemView.findViewById(R.id.note_content);
+            dateText = itemView.findViewById(R.id.note_date);
+            attachmentIndicator = itemView.findViewById(R.id.attachment_indicator);
+        }
+
+        void bind(Note note) {
+            titleText.setText(note.getTitle());
+            contentText.setText(note.getPreview());
+            String dateStr = note.getCreatedAt();
+            dateText.setText(dateStr != null && !dateStr.isEmpty() ? formatDate(dateStr) : "");
+            if (note.getFileName() != null && !note.getFileName().isEmpty()) {
+                attachmentIndicator.setVisibility(View.VISIBLE);
+                attachmentIndicator.setText("📎 " + note.getFileName());
+            } else {
+                attachmentIndicator.setVisibility(View.GONE);
+            }
+            itemView.setOnClickListener(v -> note.getId());
+            itemView.setOnLongClickListener(v -> note.getId() > 0);
+        }
+
+        private static String formatDate(String dateStr) {
+            try {
+                SimpleDateFormat inputFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.getDefault());
+                Date date = inputFormat.parse(dateStr.substring(0, 19));
+                SimpleDateFormat outputFormat = new SimpleDateFormat("MMM dd, yyyy", Locale.getDefault());
+                return outputFormat.format(date);
+            } catch (Exception e) {
+                return dateStr;
+            }
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package com.noteapp.android;
 
 import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.ClipData;
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.OpenableColumns;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.text.format.Formatter;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -17,21 +24,31 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.FileProvider;
+import androidx.lifecycle.ViewModelProvider;
 
-import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseUser;
 import com.noteapp.android.api.ApiService;
+import com.noteapp.android.data.AttachmentCache;
+import com.noteapp.android.data.AttachmentUploader;
+import com.noteapp.android.data.DraftJournal;
+import com.noteapp.android.data.NoteRepository;
+import com.noteapp.android.models.Attachment;
 import com.noteapp.android.models.Note;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 
-public class AddEditNoteActivity extends AppCompatActivity {
+public class AddEditNoteActivity extends AppCompatActivity implements AttachmentPickViewModel.Listener {
     private static final String TAG = "AddEditNoteActivity";
     private static final int REQUEST_PICK_FILE = 100;
 
-    private ApiService apiService;
+    private NoteRepository noteRepository;
+    private AttachmentCache attachmentCache;
+    private AttachmentPickViewModel attachments;
+    private AttachmentUploader attachmentUploader;
+    private DraftJournal draftJournal;
     private EditText titleEdit;
     private EditText contentEdit;
     private Button attachFileButton;
@@ -40,9 +57,24 @@ public class AddEditNoteActivity extends AppCompatActivity {
 
     private int noteId = -1;
     private boolean isEditMode = false;
-    private File selectedFile;
+    private boolean noteLoaded = false;
+    // Files handed to the uploader by the save in progress
+    private int uploadCount;
     private String existingFileUrl;
     private String existingFileName;
+    private String existingAttachmentNames;
+
+    // Existing notes save themselves once typing pauses; the repository stores each save right
+    // away and sends them one batch at a time. Sooner than that, the text goes to the draft
+    // journal so it survives the process dying.
+    private final Handler typingHandler = new Handler(Looper.getMainLooper());
+    private final Runnable autosave = this::autosave;
+    private final Runnable recordDraft = this::recordDraft;
+    // Saves handed to the repository that it hasn't stored yet; the journal is kept until they are
+    private int storesPending;
+    // Text as last handed to the repository, so unchanged text isn't saved again
+    private String savedTitle;
+    private String savedContent;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -54,7 +86,10 @@ public class AddEditNoteActivity extends AppCompatActivity {
             getSupportActionBar().setDisplayHomeAsUpEnabled(true);
         }
 
-        apiService = new ApiService();
+        noteRepository = NoteApplication.from(this).getNoteRepository();
+        attachmentCache = NoteApplication.from(this).getAttachmentCache();
+        attachmentUploader = NoteApplication.from(this).getAttachmentUploader();
+        draftJournal = NoteApplication.from(this).getDraftJournal();
 
         // Initialize views
         titleEdit = findViewById(R.id.edit_title);
@@ -63,38 +98,87 @@ public class AddEditNoteActivity extends AppCompatActivity {
         attachedFileText = findViewById(R.id.attached_file_text);
         progressBar = findViewById(R.id.progress_bar);
 
+        // Picked attachments outlive a rotation, imports still copying included
+        attachments = new ViewModelProvider(this).get(AttachmentPickViewModel.class);
+        attachments.setListener(this);
+        if (attachments.isImporting()) {
+            showImporting();
+        } else if (attachments.hasSelectedFiles()) {
+            showSelectedFiles();
+        }
+
         // Check if editing existing note
         Intent intent = getIntent();
         if (intent.hasExtra("note_id")) {
             isEditMode = true;
             noteId = intent.getIntExtra("note_id", -1);
-            titleEdit.setText(intent.getStringExtra("note_title"));
-            contentEdit.setText(intent.getStringExtra("note_content"));
-            existingFileUrl = intent.getStringExtra("note_file_url");
-            existingFileName = intent.getStringExtra("note_file_name");
-
-            if (existingFileName != null && !existingFileName.isEmpty()) {
-                attachedFileText.setText("Attached: " + existingFileName);
-                attachedFileText.setVisibility(View.VISIBLE);
-            }
-
             setTitle("Edit Note");
+            loadNote();
         } else {
             setTitle("Add Note");
+            restoreDraft("", "");
         }
 
         attachFileButton.setOnClickListener(v -> pickFile());
+        attachedFileText.setOnClickListener(v -> openAttachment());
 
-        // Get auth token
-        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
-        if (user != null) {
-            user.getIdToken(true).addOnCompleteListener(task -> {
-                if (task.isSuccessful()) {
-                    String token = task.getResult().getToken();
-                    apiService.setAuthToken(token);
-                }
-            });
-        }
+        TextWatcher autosaveWatcher = new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                scheduleAutosave();
+                scheduleDraft();
+            }
+        };
+        titleEdit.addTextChangedListener(autosaveWatcher);
+        contentEdit.addTextChangedListener(autosaveWatcher);
+    }
+
+    // The list only has a preview, so fetch the whole note before it can be edited
+    private void loadNote() {
+        showLoading(true);
+        titleEdit.setEnabled(false);
+        contentEdit.setEnabled(false);
+        noteRepository.getNote(noteId, new ApiService.ApiCallback<Note>() {
+            @Override
+            public void onSuccess(Note result) {
+                runOnUiThread(() -> {
+                    noteLoaded = true;
+                    titleEdit.setText(result.getTitle());
+                    contentEdit.setText(result.getContent());
+                    savedTitle = titleEdit.getText().toString().trim();
+                    savedContent = contentEdit.getText().toString().trim();
+                    restoreDraft(titleEdit.getText().toString(), contentEdit.getText().toString());
+                    titleEdit.setEnabled(true);
+                    contentEdit.setEnabled(true);
+                    existingFileUrl = result.getFileUrl();
+                    existingFileName = result.getFileName();
+                    existingAttachmentNames = attachmentNames(result);
+                    // After a rotation the picked files, or their import, are still showing
+                    if (!attachments.isImporting()) {
+                        if (!attachments.hasSelectedFiles()) {
+                            showExistingAttachments();
+                        }
+                        showLoading(false);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String error) {
+                runOnUiThread(() -> {
+                    showError("Failed to load note: " + error);
+                    finish();
+                });
+            }
+        });
     }
 
     @Override
@@ -115,10 +199,34 @@ public class AddEditNoteActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
+    // "a.pdf, b.jpg", with the primary attachment first; null if there are none
+    private static String attachmentNames(Note note) {
+        List<String> names = new ArrayList<>();
+        if (note.getFileName() != null && !note.getFileName().isEmpty()) {
+            names.add(note.getFileName());
+        }
+        for (Attachment attachment : note.getAttachments()) {
+            if (attachment.getName() != null && !Objects.equals(attachment.getUrl(), note.getFileUrl())) {
+                names.add(attachment.getName());
+            }
+        }
+        return names.isEmpty() ? null : String.join(", ", names);
+    }
+
+    private void showExistingAttachments() {
+        if (existingAttachmentNames != null) {
+            attachedFileText.setText("Attached: " + existingAttachmentNames);
+            attachedFileText.setVisibility(View.VISIBLE);
+        } else {
+            attachedFileText.setVisibility(View.GONE);
+        }
+    }
+
     private void pickFile() {
         Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
         intent.setType("*/*");
         intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
         startActivityForResult(intent, REQUEST_PICK_FILE);
     }
 
@@ -127,155 +235,320 @@ public class AddEditNoteActivity extends AppCompatActivity {
         super.onActivityResult(requestCode, resultCode, data);
         
         if (requestCode == REQUEST_PICK_FILE && resultCode == Activity.RESULT_OK) {
-            if (data != null) {
-                Uri uri = data.getData();
-                try {
-                    // Get file name
-                    String fileName = getFileName(uri);
-                    
-                    // Copy to cache directory
-                    InputStream inputStream = getContentResolver().openInputStream(uri);
-                    selectedFile = new File(getCacheDir(), fileName);
-                    FileOutputStream outputStream = new FileOutputStream(selectedFile);
-                    
-                    byte[] buffer = new byte[4096];
-                    int bytesRead;
-                    while ((bytesRead = inputStream.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, bytesRead);
-                    }
-                    
-                    inputStream.close();
-                    outputStream.close();
-                    
-                    attachedFileText.setText("Selected: " + fileName);
-                    attachedFileText.setVisibility(View.VISIBLE);
-                } catch (Exception e) {
-                    Toast.makeText(this, "Failed to select file: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            List<Uri> uris = new ArrayList<>();
+            ClipData clip = data != null ? data.getClipData() : null;
+            if (clip != null) {
+                for (int i = 0; i < clip.getItemCount(); i++) {
+                    uris.add(clip.getItemAt(i).getUri());
                 }
+            } else if (data != null && data.getData() != null) {
+                uris.add(data.getData());
+            }
+            if (!uris.isEmpty()) {
+                importFiles(uris);
             }
         }
     }
 
-    private String getFileName(Uri uri) {
-        String result = null;
-        if (uri.getScheme().equals("content")) {
-            Cursor cursor = getContentResolver().query(uri, null, null, null, null);
-            try {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                    if (nameIndex != -1) {
-                        result = cursor.getString(nameIndex);
-                    }
-                }
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
+    // Copy the picked files into the staging area off the UI thread; they replace any earlier pick
+    private void importFiles(List<Uri> uris) {
+        attachments.importFiles(uris);
+        showImporting();
+    }
+
+    private void showImporting() {
+        showLoading(true);
+        attachedFileText.setText("Copying file…");
+        attachedFileText.setVisibility(View.VISIBLE);
+    }
+
+    private void showSelectedFiles() {
+        attachedFileText.setText("Selected: " + String.join("\n", attachments.getSelectedLabels()));
+        attachedFileText.setVisibility(View.VISIBLE);
+    }
+
+    @Override
+    public void onImportProgress(String counter, long copied, long total) {
+        attachedFileText.setText("Copying file" + counter + ": " + (total > 0
+                ? Math.min(100, copied * 100 / total) + "%"
+                : Formatter.formatShortFileSize(this, copied)));
+    }
+
+    @Override
+    public void onImportError(String error) {
+        showError("Failed to select file: " + error);
+    }
+
+    @Override
+    public void onImportsFinished() {
+        showLoading(false);
+        if (attachments.hasSelectedFiles()) {
+            showSelectedFiles();
+        } else {
+            showExistingAttachments();
+        }
+    }
+
+    private int draftKey() {
+        return isEditMode ? noteId : DraftJournal.NEW_NOTE;
+    }
+
+    // Put back text journaled before the process died, unless the fields changed since they were filled
+    private void restoreDraft(String expectedTitle, String expectedContent) {
+        draftJournal.load(draftKey(), new ApiService.ApiCallback<DraftJournal.Draft>() {
+            @Override
+            public void onSuccess(DraftJournal.Draft draft) {
+                if (draft == null) {
+                    return;
                 }
+                runOnUiThread(() -> {
+                    if (isFinishing()
+                            || !titleEdit.getText().toString().equals(expectedTitle)
+                            || !contentEdit.getText().toString().equals(expectedContent)
+                            || (draft.getTitle().equals(expectedTitle) && draft.getContent().equals(expectedContent))) {
+                        return;
+                    }
+                    titleEdit.setText(draft.getTitle());
+                    contentEdit.setText(draft.getContent());
+                    Toast.makeText(AddEditNoteActivity.this, "Restored unsaved changes", Toast.LENGTH_SHORT).show();
+                });
             }
-        }
-        if (result == null) {
-            result = uri.getPath();
-            int cut = result.lastIndexOf('/');
-            if (cut != -1) {
-                result = result.substring(cut + 1);
+
+            @Override
+            public void onError(String error) {
+                Log.w(TAG, "Could not read draft: " + error);
             }
+        });
+    }
+
+    private void scheduleDraft() {
+        if (isEditMode && !noteLoaded) {
+            return;
         }
-        return result;
+        typingHandler.removeCallbacks(recordDraft);
+        typingHandler.postDelayed(recordDraft, Config.DRAFT_DEBOUNCE_MS);
     }
 
-    private void saveNote() {
+    private void recordDraft() {
+        String title = titleEdit.getText().toString();
+        String content = contentEdit.getText().toString();
+        if (title.trim().equals(savedTitle) && content.trim().equals(savedContent)) {
+            return; // Nothing unsaved
+        }
+        draftJournal.record(draftKey(), title, content);
+    }
+
+    // Each keystroke restarts the wait, so a burst of typing becomes one save
+    private void scheduleAutosave() {
+        if (!isEditMode || !noteLoaded) {
+            return;
+        }
+        typingHandler.removeCallbacks(autosave);
+        typingHandler.postDelayed(autosave, Config.AUTOSAVE_DEBOUNCE_MS);
+    }
+
+    private void autosave() {
         String title = titleEdit.getText().toString().trim();
         String content = contentEdit.getText().toString().trim();
-
-        if (title.isEmpty()) {
-            titleEdit.setError("Title is required");
+        if (title.isEmpty() || content.isEmpty()
+                || (title.equals(savedTitle) && content.equals(savedContent))) {
             return;
         }
+        savedTitle = title;
+        savedContent = content;
+        Note note = new Note(title, content);
+        note.setFileUrl(existingFileUrl);
+        note.setFileName(existingFileName);
 
-        showLoading(true);
+        // Stored and queued in the outbox on the repository's thread, even while an earlier
+        // save is still on the wire; only the network send waits its turn
+        noteRepository.updateNote(noteId, note, storedListener(null), new ApiService.ApiCallback<Note>() {
+            @Override
+            public void onSuccess(Note result) {
+            }
 
-        // If file is selected, upload it first
-        if (selectedFile != null) {
-            uploadFileAndSaveNote(title, content);
-        } else {
-            saveNoteToServer(title, content, existingFileUrl, existingFileName);
+            @Override
+            public void onError(String error) {
+                showLater("Failed to save note: " + error, Toast.LENGTH_LONG);
+            }
+        });
+    }
+
+    /**
+     * Counts a save as pending until the repository has committed it to the store and
+     * outbox, then drops the draft journal, which the outbox now makes redundant. Runs
+     * {@code next} too, e.g. to tie uploads to the stored note.
+     */
+    private NoteRepository.StoredListener storedListener(NoteRepository.StoredListener next) {
+        storesPending++;
+        return note -> {
+            if (next != null) {
+                next.onStored(note);
+            }
+            runOnUiThread(this::noteStored);
+        };
+    }
+
+    private void noteStored() {
+        if (--storesPending > 0 || (isDestroyed() && !isFinishing())) {
+            return; // More to come, or recreated and the new editor owns the journal now
+        }
+        // Text typed since the save is still only in the journal, unless the editor was left
+        boolean unchanged = titleEdit.getText().toString().trim().equals(savedTitle)
+                && contentEdit.getText().toString().trim().equals(savedContent);
+        if (unchanged || isFinishing()) {
+            draftJournal.discard(draftKey());
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Don't lose the last few keystrokes when leaving; a no-op if nothing changed
+        if (!isEditMode || noteLoaded) {
+            typingHandler.removeCallbacks(recordDraft);
+            recordDraft();
+            draftJournal.flush();
+        }
+        if (isEditMode && noteLoaded) {
+            typingHandler.removeCallbacks(autosave);
+            autosave();
         }
     }
 
-    private void uploadFileAndSaveNote(String title, String content) {
-        apiService.uploadFile(selectedFile, new ApiService.ApiCallback<String>() {
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Imports keep running across a rotation; the ViewModel cancels them once the editor is finished
+        attachments.setListener(null);
+        if (isFinishing() && storesPending == 0) {
+            // Saved, or left on purpose; either way there is nothing to restore.
+            // With a save still being stored, noteStored() discards it once that commits
+            draftJournal.discard(draftKey());
+        }
+    }
+
+    // Open the note's current attachment, from the local cache when it was opened before
+    private void openAttachment() {
+        if (attachments.hasSelectedFiles() || existingFileUrl == null || existingFileUrl.isEmpty()) {
+            return;
+        }
+        String fileName = existingFileName;
+        showLoading(true);
+        attachmentCache.get(existingFileUrl, fileName, new ApiService.ApiCallback<File>() {
             @Override
-            public void onSuccess(String result) {
-                // Parse the response JSON to get fileUrl and fileName
-                try {
-                    org.json.JSONObject jsonResponse = new org.json.JSONObject(result);
-                    String fileUrl = jsonResponse.getString("fileUrl");
-                    String fileName = jsonResponse.getString("fileName");
-                    runOnUiThread(() -> saveNoteToServer(title, content, fileUrl, fileName));
-                } catch (Exception e) {
-                    runOnUiThread(() -> {
-                        showError("Failed to parse upload response: " + e.getMessage());
-                        showLoading(false);
-                    });
-                }
+            public void onSuccess(File result) {
+                runOnUiThread(() -> {
+                    showLoading(false);
+                    viewFile(result, fileName);
+                });
             }
 
             @Override
             public void onError(String error) {
                 runOnUiThread(() -> {
-                    showError("Failed to upload file: " + error);
                     showLoading(false);
+                    showError("Failed to open attachment: " + error);
                 });
             }
         });
     }
 
+    private void viewFile(File file, String fileName) {
+        Uri uri = FileProvider.getUriForFile(this, BuildConfig.APPLICATION_ID + ".fileprovider", file);
+        Intent intent = new Intent(Intent.ACTION_VIEW);
+        intent.setDataAndType(uri, ApiService.guessMimeType(fileName));
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        try {
+            startActivity(intent);
+        } catch (ActivityNotFoundException e) {
+            showError("No app can open " + fileName);
+        }
+    }
+
+    private void saveNote() {
+        if (isEditMode && !noteLoaded) {
+            return; // Saving now would overwrite the note with empty fields
+        }
+        if (attachments.isImporting()) {
+            showError("Still copying the attachment");
+            return;
+        }
+        String title = titleEdit.getText().toString().trim();
+        String content = contentEdit.getText().toString().trim();
+
+        if (title.isEmpty()) {
+            titleEdit.setError("Title is required");
+            return;
+        }
+
+        saveNoteToServer(title, content, existingFileUrl, existingFileName);
+    }
+
+    /**
+     * Starts uploading newly picked files now; the returned listener ties them to the
+     * note once the repository has stored it. The text save doesn't wait for them.
+     */
+    private NoteRepository.StoredListener uploadAttachments() {
+        if (!attachments.hasSelectedFiles()) {
+            return null;
+        }
+        // The uploader owns the staged files from here on
+        return attachmentUploader.uploadFor(attachments.takeSelectedFiles());
+    }
+
+    private String savedMessage(String saved) {
+        return uploadCount > 0 ? saved + ", uploading " + uploadCount
+                + (uploadCount == 1 ? " attachment" : " attachments") : saved;
+    }
+
+    /**
+     * The repository stores the note and updates the list before it is sent, so the
+     * editor closes straight away. Whatever the server says later is reported by
+     * toast against the application context; a rejected change is rolled back in
+     * the list by the repository.
+     */
     private void saveNoteToServer(String title, String content, String fileUrl, String fileName) {
         Note note = new Note(title, content);
         note.setFileUrl(fileUrl);
         note.setFileName(fileName);
 
-        if (isEditMode) {
-            apiService.updateNote(noteId, note, new ApiService.ApiCallback<Note>() {
-                @Override
-                public void onSuccess(Note result) {
-                    runOnUiThread(() -> {
-                        showLoading(false);
-                        Toast.makeText(AddEditNoteActivity.this, "Note updated", Toast.LENGTH_SHORT).show();
-                        setResult(RESULT_OK);
-                        finish();
-                    });
+        typingHandler.removeCallbacks(autosave);
+        typingHandler.removeCallbacks(recordDraft);
+        savedTitle = title;
+        savedContent = content;
+        uploadCount = attachments.getSelectedCount();
+        String failure = (isEditMode ? "Failed to update note" : "Failed to create note")
+                + (uploadCount > 0 && !isEditMode ? " and its attachments: " : ": ");
+        // The journal is dropped once the repository has stored the note
+        NoteRepository.StoredListener stored = storedListener(uploadAttachments());
+        ApiService.ApiCallback<Note> callback = new ApiService.ApiCallback<Note>() {
+            @Override
+            public void onSuccess(Note result) {
+                if (result != null && result.isPending()) {
+                    showLater("Saved offline, will sync when online", Toast.LENGTH_SHORT);
                 }
+            }
 
-                @Override
-                public void onError(String error) {
-                    runOnUiThread(() -> {
-                        showError("Failed to update note: " + error);
-                        showLoading(false);
-                    });
-                }
-            });
+            @Override
+            public void onError(String error) {
+                showLater(failure + error, Toast.LENGTH_LONG);
+            }
+        };
+        if (isEditMode) {
+            noteRepository.updateNote(noteId, note, stored, callback);
         } else {
-            apiService.createNote(note, new ApiService.ApiCallback<Note>() {
-                @Override
-                public void onSuccess(Note result) {
-                    runOnUiThread(() -> {
-                        showLoading(false);
-                        Toast.makeText(AddEditNoteActivity.this, "Note created", Toast.LENGTH_SHORT).show();
-                        setResult(RESULT_OK);
-                        finish();
-                    });
-                }
-
-                @Override
-                public void onError(String error) {
-                    runOnUiThread(() -> {
-                        showError("Failed to create note: " + error);
-                        showLoading(false);
-                    });
-                }
-            });
+            noteRepository.createNote(note, stored, callback);
         }
+        Toast.makeText(this, savedMessage(isEditMode ? "Note updated" : "Note created"), Toast.LENGTH_SHORT).show();
+        setResult(RESULT_OK);
+        finish();
+    }
+
+    // For results that arrive after the editor has closed
+    private void showLater(String message, int duration) {
+        Context app = getApplicationContext();
+        new Handler(Looper.getMainLooper()).post(() -> Toast.makeText(app, message, duration).show());
     }
 
     private void showLoading(boolean show) {
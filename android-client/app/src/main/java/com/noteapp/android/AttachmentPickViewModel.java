@@ -0,0 +1,169 @@
+package com.noteapp.android;
+
+import android.app.Application;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.Formatter;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+
+import com.noteapp.android.api.ApiService;
+import com.noteapp.android.data.AttachmentImporter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * The editor's picked attachments: imports still copying into the staging area and
+ * the files already staged. Kept in a ViewModel so rotating the screen neither
+ * cancels a copy nor loses what was picked; it all goes away, files released, only
+ * when the editor is finished for good. Main thread only.
+ */
+public class AttachmentPickViewModel extends AndroidViewModel {
+    public interface Listener {
+        // counter is "" or " 2 of 3"; total is 0 when the size is unknown
+        void onImportProgress(String counter, long copied, long total);
+        void onImportError(String error);
+        void onImportsFinished();
+    }
+
+    private final AttachmentImporter attachmentImporter;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Staged and ready to upload, with their "name (size)" labels
+    private final List<File> selectedFiles = new ArrayList<>();
+    private final List<String> selectedLabels = new ArrayList<>();
+    private final List<Future<?>> importTasks = new ArrayList<>();
+    private int pendingImports;
+    // Bumped per pick, so a replaced import's late results are ignored
+    private int importGeneration;
+    // The activity currently showing this state, if any
+    private Listener listener;
+
+    public AttachmentPickViewModel(@NonNull Application application) {
+        super(application);
+        attachmentImporter = NoteApplication.from(application).getAttachmentImporter();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public boolean isImporting() {
+        return pendingImports > 0;
+    }
+
+    public boolean hasSelectedFiles() {
+        return !selectedFiles.isEmpty();
+    }
+
+    public int getSelectedCount() {
+        return selectedFiles.size();
+    }
+
+    public List<String> getSelectedLabels() {
+        return new ArrayList<>(selectedLabels);
+    }
+
+    // Hands the staged files to the caller, who owns them from here on
+    public List<File> takeSelectedFiles() {
+        List<File> files = new ArrayList<>(selectedFiles);
+        selectedFiles.clear();
+        selectedLabels.clear();
+        return files;
+    }
+
+    // Copy the picked files into the staging area off the UI thread; they replace any earlier pick
+    public void importFiles(List<Uri> uris) {
+        cancelImports();
+        releaseSelectedFiles();
+        int generation = ++importGeneration;
+        pendingImports = uris.size();
+
+        for (int i = 0; i < uris.size(); i++) {
+            String counter = uris.size() > 1 ? " " + (i + 1) + " of " + uris.size() : "";
+            AttachmentImporter.ProgressListener progress = (copied, total) -> mainHandler.post(() -> {
+                if (generation == importGeneration && listener != null) {
+                    listener.onImportProgress(counter, copied, total);
+                }
+            });
+
+            importTasks.add(attachmentImporter.importUri(uris.get(i), progress,
+                    new ApiService.ApiCallback<AttachmentImporter.ImportedFile>() {
+                @Override
+                public void onSuccess(AttachmentImporter.ImportedFile result) {
+                    mainHandler.post(() -> {
+                        if (generation != importGeneration) {
+                            attachmentImporter.getStagingArea().release(result.getFile());
+                            return;
+                        }
+                        selectedFiles.add(result.getFile());
+                        selectedLabels.add(result.getFile().getName() + " (" + describeSize(result) + ")");
+                        importFinished();
+                    });
+                }
+
+                @Override
+                public void onError(String error) {
+                    mainHandler.post(() -> {
+                        if (generation != importGeneration) {
+                            return;
+                        }
+                        if (listener != null) {
+                            listener.onImportError(error);
+                        }
+                        importFinished();
+                    });
+                }
+            }));
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        // The editor is gone for good; late results release their own files
+        importGeneration++;
+        cancelImports();
+        releaseSelectedFiles();
+        listener = null;
+    }
+
+    private void importFinished() {
+        if (--pendingImports > 0) {
+            return;
+        }
+        importTasks.clear();
+        if (listener != null) {
+            listener.onImportsFinished();
+        }
+    }
+
+    // "3.2 MB → 410 kB" when the image was shrunk, so it's clear what will be sent
+    private String describeSize(AttachmentImporter.ImportedFile imported) {
+        Application app = getApplication();
+        String sent = Formatter.formatShortFileSize(app, imported.getFile().length());
+        if (!imported.isTranscoded()) {
+            return sent;
+        }
+        return Formatter.formatShortFileSize(app, imported.getOriginalBytes()) + " → " + sent;
+    }
+
+    private void cancelImports() {
+        for (Future<?> task : importTasks) {
+            task.cancel(true);
+        }
+        importTasks.clear();
+        pendingImports = 0;
+    }
+
+    private void releaseSelectedFiles() {
+        for (File file : selectedFiles) {
+            attachmentImporter.getStagingArea().release(file);
+        }
+        selectedFiles.clear();
+        selectedLabels.clear();
+    }
+}
@@ -8,8 +8,53 @@ public class Config {
     
     // API endpoints
     public static final String API_NOTES = BASE_URL + "/api/notes";
+    public static final String API_NOTES_BATCH = API_NOTES + "/batch";
     public static final String API_CONFIG = BASE_URL + "/api/config";
     public static final String API_UPLOAD = BASE_URL + "/api/upload";
+    public static final String API_UPLOADS = BASE_URL + "/api/uploads";
     public static final String API_SUBSCRIPTION = BASE_URL + "/api/user/subscription-status";
+
+    // Notes fetched per page of the list screen (server allows up to 100)
+    public static final int NOTES_PAGE_SIZE = 30;
+
+    // Most notes shown for a search, best match first
+    public static final int SEARCH_RESULT_LIMIT = 50;
+
+    // Quiet time after the last keystroke before the search box runs a query
+    public static final long SEARCH_DEBOUNCE_MS = 150;
+
+    // Image thumbnails in the notes list: decoded bitmaps in memory, downsampled files on disk
+    public static final long THUMBNAIL_MEMORY_CACHE_BYTES = 8L * 1024 * 1024;
+    public static final long THUMBNAIL_DISK_CACHE_BYTES = 50L * 1024 * 1024;
+
+    // Downloaded non-image attachments kept for reopening
+    public static final long ATTACHMENT_CACHE_BYTES = 100L * 1024 * 1024;
+
+    // Picked attachments copied locally and waiting to be uploaded
+    public static final long STAGING_AREA_BYTES = 512L * 1024 * 1024;
+
+    // Picked JPEG/PNG/WebP images are downscaled and re-encoded before upload
+    public static final boolean IMAGE_TRANSCODE_ENABLED = true;
+    public static final int IMAGE_MAX_DIMENSION = 2048;
+    public static final int IMAGE_QUALITY = 80;
+
+    // Attachment uploads are sent in chunks of this size and resume per chunk
+    public static final int UPLOAD_CHUNK_SIZE = 1024 * 1024;
+
+    // Largest request/response body written to Logcat in debug builds
+    public static final long HTTP_LOG_BODY_CAP = 4 * 1024;
+
+    // Most outbox operations replayed in one POST /api/notes/batch (server allows 100)
+    public static final int OUTBOX_BATCH_SIZE = 50;
+
+    // Updates of notes at least this long send only the changed range of the content
+    public static final int DELTA_UPDATE_MIN_CHARS = 2048;
+
+    // Quiet time after the last edit before the editor saves an existing note by itself
+    public static final long AUTOSAVE_DEBOUNCE_MS = 1500;
+
+    // Editor text is journaled this long after the last keystroke, and fsynced at most this often
+    public static final long DRAFT_DEBOUNCE_MS = 300;
+    public static final long DRAFT_SYNC_INTERVAL_MS = 1000;
 }
 
@@ -0,0 +1,122 @@
+package com.noteapp.android;
+
+import android.app.Application;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.Toast;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.gson.Gson;
+import com.noteapp.android.api.ApiService;
+import com.noteapp.android.api.AuthTokenProvider;
+import com.noteapp.android.data.AttachmentCache;
+import com.noteapp.android.data.AttachmentImporter;
+import com.noteapp.android.data.AttachmentUploader;
+import com.noteapp.android.data.DraftJournal;
+import com.noteapp.android.data.ImageTranscoder;
+import com.noteapp.android.data.NoteDatabase;
+import com.noteapp.android.data.NoteRepository;
+import com.noteapp.android.data.NoteStore;
+import com.noteapp.android.data.Outbox;
+import com.noteapp.android.data.StagingArea;
+import com.noteapp.android.data.UploadQueue;
+
+import java.io.File;
+
+public class NoteApplication extends Application {
+    public static final String NETWORK_METRICS_FILE = "network-metrics.json";
+
+    private AuthTokenProvider tokenProvider;
+    private ApiService apiService;
+    private NoteRepository noteRepository;
+    private AttachmentCache attachmentCache;
+    private AttachmentImporter attachmentImporter;
+    private AttachmentUploader attachmentUploader;
+    private DraftJournal draftJournal;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        tokenProvider = new AuthTokenProvider(FirebaseAuth.getInstance());
+        // One client for the whole process so warm connections survive screen changes
+        apiService = new ApiService(this, tokenProvider);
+        attachmentCache = new AttachmentCache(new File(getCacheDir(), "attachments"),
+                Config.ATTACHMENT_CACHE_BYTES, apiService);
+        attachmentImporter = new AttachmentImporter(getContentResolver(),
+                new StagingArea(new File(getCacheDir(), "staging"), Config.STAGING_AREA_BYTES),
+                Config.IMAGE_TRANSCODE_ENABLED
+                        ? new ImageTranscoder(Config.IMAGE_MAX_DIMENSION, Config.IMAGE_QUALITY) : null);
+
+        NoteDatabase database = new NoteDatabase(this);
+        Gson gson = new Gson();
+        noteRepository = new NoteRepository(apiService, new NoteStore(database),
+                new Outbox(database, gson, Config.DELTA_UPDATE_MIN_CHARS), FirebaseAuth.getInstance());
+        // Outlives the editor, so a save can return before its attachments finish uploading;
+        // jobs left by a previous process resume here
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        attachmentUploader = new AttachmentUploader(apiService, noteRepository,
+                attachmentImporter.getStagingArea(), new UploadQueue(database, gson),
+                new File(getFilesDir(), "uploads"),
+                (fileName, error) -> mainHandler.post(() -> Toast.makeText(this,
+                        "Could not attach " + fileName + ": " + error, Toast.LENGTH_LONG).show()));
+        // Files, not cache: unsaved editor text must survive the process being killed
+        draftJournal = new DraftJournal(new File(getFilesDir(), "drafts"), Config.DRAFT_SYNC_INTERVAL_MS);
+
+        // Replay writes queued while offline now and whenever a network comes up
+        noteRepository.flushOutbox();
+        ConnectivityManager connectivity = getSystemService(ConnectivityManager.class);
+        if (connectivity != null) {
+            connectivity.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    noteRepository.flushOutbox();
+                    attachmentUploader.retry();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level == TRIM_MEMORY_UI_HIDDEN) {
+            // Snapshot network timings whenever the app goes to the background
+            apiService.dumpNetworkMetrics(new File(getFilesDir(), NETWORK_METRICS_FILE));
+        }
+    }
+
+    public ApiService getApiService() {
+        return apiService;
+    }
+
+    public NoteRepository getNoteRepository() {
+        return noteRepository;
+    }
+
+    public AttachmentCache getAttachmentCache() {
+        return attachmentCache;
+    }
+
+    public AttachmentImporter getAttachmentImporter() {
+        return attachmentImporter;
+    }
+
+    public AttachmentUploader getAttachmentUploader() {
+        return attachmentUploader;
+    }
+
+    public DraftJournal getDraftJournal() {
+        return draftJournal;
+    }
+
+    public AuthTokenProvider getTokenProvider() {
+        return tokenProvider;
+    }
+
+    public static NoteApplication from(Context context) {
+        return (NoteApplication) context.getApplicationContext();
+    }
+}
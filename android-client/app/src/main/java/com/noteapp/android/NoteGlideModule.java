@@ -0,0 +1,32 @@
+package com.noteapp.android;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.module.AppGlideModule;
+
+/**
+ * Glide's configuration, picked up by its annotation processor and applied the first
+ * time Glide is used. Bounded caches for list thumbnails; only downsampled thumbnails
+ * go to disk.
+ */
+@GlideModule
+public final class NoteGlideModule extends AppGlideModule {
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        builder.setMemoryCache(new LruResourceCache(Config.THUMBNAIL_MEMORY_CACHE_BYTES))
+                .setDiskCache(new InternalCacheDiskCacheFactory(context, "thumbnails",
+                        Config.THUMBNAIL_DISK_CACHE_BYTES));
+    }
+
+    // No libraries here declare manifest modules; skip looking for them
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
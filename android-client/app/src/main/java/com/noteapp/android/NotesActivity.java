@@ -2,6 +2,8 @@ package com.noteapp.android;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -12,6 +14,7 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
@@ -19,8 +22,12 @@ import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.noteapp.android.adapters.NoteRowMapper;
+import com.noteapp.android.adapters.NoteRowModel;
 import com.noteapp.android.adapters.NotesAdapter;
 import com.noteapp.android.api.ApiService;
+import com.noteapp.android.data.NotePager;
+import com.noteapp.android.data.NoteRepository;
 import com.noteapp.android.models.Note;
 import com.noteapp.android.models.SubscriptionStatus;
 
@@ -29,12 +36,22 @@ import java.util.List;
 
 public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnNoteClickListener {
     private static final String TAG = "NotesActivity";
-    private static final int REQUEST_ADD_NOTE = 1;
-    private static final int REQUEST_EDIT_NOTE = 2;
+    // Rows left below the last visible one when the next page is requested
+    private static final int PREFETCH_DISTANCE = 10;
 
     private FirebaseAuth mAuth;
     private ApiService apiService;
+    private NoteRepository noteRepository;
+    private NotePager pager;
     private NotesAdapter adapter;
+    private final NoteRowMapper rowMapper = new NoteRowMapper();
+    // Search results are formatted on the search thread, so they get their own mapper
+    private final NoteRowMapper searchRowMapper = new NoteRowMapper();
+    private List<NoteRowModel> pagedRows = new ArrayList<>();
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private Runnable pendingSearch;
+    private boolean searching = false;
+    private int searchGeneration = 0;
     
     private RecyclerView recyclerView;
     private SwipeRefreshLayout swipeRefresh;
@@ -43,8 +60,8 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
     private TextView premiumStatusText;
     private FloatingActionButton fabAddNote;
 
-    private List<Note> notesList = new ArrayList<>();
     private boolean isPremium = false;
+    private int loadGeneration = 0;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -52,7 +69,8 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
         setContentView(R.layout.activity_notes);
 
         mAuth = FirebaseAuth.getInstance();
-        apiService = new ApiService();
+        apiService = NoteApplication.from(this).getApiService();
+        noteRepository = NoteApplication.from(this).getNoteRepository();
 
         // Initialize views
         recyclerView = findViewById(R.id.notes_recycler_view);
@@ -63,17 +81,29 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
         fabAddNote = findViewById(R.id.fab_add_note);
 
         // Setup RecyclerView
-        adapter = new NotesAdapter(notesList, this);
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        adapter = new NotesAdapter(this);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
         recyclerView.setAdapter(adapter);
 
+        // Fetch the next page a little before the user reaches the end of the list
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView view, int dx, int dy) {
+                if (dy > 0 && !searching && pager != null && pager.hasMore() && !pager.isLoading()
+                        && layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - PREFETCH_DISTANCE) {
+                    pager.loadNextPage();
+                }
+            }
+        });
+
         // Setup SwipeRefresh
         swipeRefresh.setOnRefreshListener(this::loadNotes);
 
         // Setup FAB
         fabAddNote.setOnClickListener(v -> {
             Intent intent = new Intent(NotesActivity.this, AddEditNoteActivity.class);
-            startActivityForResult(intent, REQUEST_ADD_NOTE);
+            startActivity(intent);
         });
 
         // Check authentication
@@ -83,25 +113,83 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
             return;
         }
 
-        // Get auth token and load data
-        user.getIdToken(true).addOnCompleteListener(task -> {
-            if (task.isSuccessful()) {
-                String token = task.getResult().getToken();
-                apiService.setAuthToken(token);
-                loadSubscriptionStatus();
-                loadNotes();
-            } else {
-                showError("Failed to get auth token");
-            }
-        });
+        // The token is attached by ApiService, so data can load right away
+        loadSubscriptionStatus();
+        loadNotes();
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_notes, menu);
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                scheduleSearch(query, 0);
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String text) {
+                scheduleSearch(text, Config.SEARCH_DEBOUNCE_MS);
+                return true;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                searching = true;
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                // Back to the paged list as it was before searching
+                searching = false;
+                searchHandler.removeCallbacks(pendingSearch);
+                searchGeneration++;
+                adapter.submitList(pagedRows, NotesActivity.this::updateEmptyView);
+                return true;
+            }
+        });
         return true;
     }
 
+    // Runs the search once typing has paused for delayMs; each keystroke restarts the wait
+    private void scheduleSearch(String query, long delayMs) {
+        searchHandler.removeCallbacks(pendingSearch);
+        pendingSearch = () -> runSearch(query);
+        searchHandler.postDelayed(pendingSearch, delayMs);
+    }
+
+    private void runSearch(String query) {
+        final int generation = ++searchGeneration;
+        if (query.trim().isEmpty()) {
+            adapter.submitList(pagedRows, this::updateEmptyView);
+            return;
+        }
+        noteRepository.searchNotes(query, new ApiService.ApiCallback<List<Note>>() {
+            @Override
+            public void onSuccess(List<Note> result) {
+                List<NoteRowModel> rows = searchRowMapper.map(result);
+                runOnUiThread(() -> {
+                    if (searching && generation == searchGeneration) {
+                        adapter.submitList(rows, NotesActivity.this::updateEmptyView);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String error) {
+                runOnUiThread(() -> showError(error));
+            }
+        });
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         if (item.getItemId() == R.id.action_logout) {
@@ -114,17 +202,40 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
         return super.onOptionsItemSelected(item);
     }
 
+    // Start over from the first page
     private void loadNotes() {
         showLoading(true);
-        apiService.getNotes(new ApiService.ApiCallback<List<Note>>() {
+        final int generation = ++loadGeneration;
+        if (pager != null) {
+            pager.close();
+        }
+        // Saves and deletes arrive through this listener too, so the list never needs reloading for them
+        pager = noteRepository.openPager(new NoteRepository.NotesListener() {
             @Override
-            public void onSuccess(List<Note> result) {
+            public void onNotes(List<Note> notes) {
+                // Format rows here, on the repository's thread, so binding is just assignment
+                List<NoteRowModel> rows = rowMapper.map(notes);
                 runOnUiThread(() -> {
-                    notesList.clear();
-                    notesList.addAll(result);
-                    adapter.notifyDataSetChanged();
-                    updateEmptyView();
-                    showLoading(false);
+                    if (generation != loadGeneration) {
+                        return; // superseded by a newer load
+                    }
+                    // Cached or fetched notes: show them and drop the spinner right away,
+                    // leaving the swipe indicator until revalidation finishes
+                    pagedRows = rows;
+                    if (!searching) {
+                        adapter.submitList(rows, NotesActivity.this::updateEmptyView);
+                    }
+                    progressBar.setVisibility(View.GONE);
+                });
+            }
+
+            @Override
+            public void onLoadFinished() {
+                runOnUiThread(() -> {
+                    if (generation == loadGeneration) {
+                        showLoading(false);
+                        updateEmptyView();
+                    }
                 });
             }
 
@@ -136,6 +247,7 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
                 });
             }
         });
+        pager.loadNextPage();
     }
 
     private void loadSubscriptionStatus() {
@@ -176,12 +288,9 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
     @Override
     public void onNoteClick(Note note) {
         Intent intent = new Intent(NotesActivity.this, AddEditNoteActivity.class);
+        // Only the id: the editor loads the full note itself, keeping large bodies out of the Intent
         intent.putExtra("note_id", note.getId());
-        intent.putExtra("note_title", note.getTitle());
-        intent.putExtra("note_content", note.getContent());
-        intent.putExtra("note_file_url", note.getFileUrl());
-        intent.putExtra("note_file_name", note.getFileName());
-        startActivityForResult(intent, REQUEST_EDIT_NOTE);
+        startActivity(intent);
     }
 
     @Override
@@ -194,40 +303,38 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
                 .show();
     }
 
+    // The pager drops the row right away and puts it back if the server refuses
     private void deleteNote(Note note) {
-        showLoading(true);
-        apiService.deleteNote(note.getId(), new ApiService.ApiCallback<Void>() {
+        if (searching) {
+            adapter.submitList(withoutNote(adapter.getCurrentList(), note), this::updateEmptyView);
+        }
+        Toast.makeText(this, "Note deleted", Toast.LENGTH_SHORT).show();
+        noteRepository.deleteNote(note.getId(), new ApiService.ApiCallback<Void>() {
             @Override
             public void onSuccess(Void result) {
-                runOnUiThread(() -> {
-                    notesList.remove(note);
-                    adapter.notifyDataSetChanged();
-                    updateEmptyView();
-                    showLoading(false);
-                    Toast.makeText(NotesActivity.this, "Note deleted", Toast.LENGTH_SHORT).show();
-                });
             }
 
             @Override
             public void onError(String error) {
-                runOnUiThread(() -> {
-                    showError("Failed to delete note: " + error);
-                    showLoading(false);
-                });
+                runOnUiThread(() -> showError("Failed to delete note: " + error));
             }
         });
     }
 
     @Override
-    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-        super.onActivityResult(requestCode, resultCode, data);
-        if (resultCode == RESULT_OK) {
-            loadNotes(); // Refresh the list
+    protected void onDestroy() {
+        super.onDestroy();
+        if (pager != null) {
+            pager.close();
         }
     }
 
     private void logout() {
         mAuth.signOut();
+        apiService.clearCache();
+        noteRepository.clearLocalData();
+        NoteApplication.from(this).getDraftJournal().clear();
+        NoteApplication.from(this).getAttachmentUploader().clear();
         navigateToLogin();
     }
 
@@ -249,8 +356,15 @@ public class NotesActivity extends AppCompatActivity implements NotesAdapter.OnN
         });
     }
 
+    private static List<NoteRowModel> withoutNote(List<NoteRowModel> rows, Note note) {
+        List<NoteRowModel> remaining = new ArrayList<>(rows);
+        remaining.removeIf(row -> row.getId() == note.getId());
+        return remaining;
+    }
+
     private void updateEmptyView() {
-        emptyView.setVisibility(notesList.isEmpty() ? View.VISIBLE : View.GONE);
+        emptyView.setText(searching ? R.string.no_search_results : R.string.no_notes_yet);
+        emptyView.setVisibility(adapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     private void showError(String message) {
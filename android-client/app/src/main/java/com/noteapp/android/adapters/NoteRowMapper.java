@@ -0,0 +1,69 @@
+package com.noteapp.android.adapters;
+
+import androidx.annotation.WorkerThread;
+
+import com.noteapp.android.api.ApiService;
+import com.noteapp.android.models.Note;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Turns notes into {@link NoteRowModel}s. Rows for notes whose displayed fields
+ * haven't changed since the last call are reused, so a refresh only formats what
+ * is new. Not thread-safe (SimpleDateFormat isn't); keep each instance on one
+ * background thread.
+ */
+public class NoteRowMapper {
+    private final SimpleDateFormat inputFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.getDefault());
+    private final SimpleDateFormat outputFormat = new SimpleDateFormat("MMM dd, yyyy", Locale.getDefault());
+    private Map<Integer, NoteRowModel> previous = new HashMap<>();
+
+    @WorkerThread
+    public List<NoteRowModel> map(List<Note> notes) {
+        List<NoteRowModel> rows = new ArrayList<>(notes.size());
+        Map<Integer, NoteRowModel> current = new HashMap<>();
+        for (Note note : notes) {
+            NoteRowModel row = previous.get(note.getId());
+            if (row == null || !row.note.hasSameSummary(note)) {
+                row = toRow(note);
+            }
+            rows.add(row);
+            current.put(note.getId(), row);
+        }
+        // Only keep what is on screen, so the cache never outgrows the list
+        previous = current;
+        return rows;
+    }
+
+    private NoteRowModel toRow(Note note) {
+        String fileName = note.getFileName();
+        boolean hasAttachment = fileName != null && !fileName.isEmpty();
+        return new NoteRowModel(note, note.getTitle(), note.getPreview(), formatDate(note.getCreatedAt()),
+                hasAttachment ? "📎 " + fileName : null,
+                hasAttachment && isImage(fileName) ? note.getFileUrl() : null);
+    }
+
+    private static boolean isImage(String fileName) {
+        return ApiService.guessMimeType(fileName).startsWith("image/");
+    }
+
+    private String formatDate(String dateStr) {
+        if (dateStr == null || dateStr.isEmpty()) {
+            return "";
+        }
+        if (dateStr.length() < 19) {
+            return dateStr;
+        }
+        try {
+            return outputFormat.format(inputFormat.parse(dateStr.substring(0, 19)));
+        } catch (ParseException e) {
+            return dateStr;
+        }
+    }
+}
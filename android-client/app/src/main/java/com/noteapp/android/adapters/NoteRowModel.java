@@ -0,0 +1,55 @@
+package com.noteapp.android.adapters;
+
+import com.noteapp.android.models.Note;
+
+import java.util.Objects;
+
+/**
+ * Everything one row of the notes list displays, already formatted, so binding a
+ * row is plain field assignment. Built off the main thread by {@link NoteRowMapper}.
+ */
+public final class NoteRowModel {
+    final Note note;
+    final String title;
+    final String preview;
+    final String dateLabel;
+    // Null when the note has no attachment
+    final String attachmentLabel;
+    // Null unless the attachment is an image
+    final String thumbnailUrl;
+
+    NoteRowModel(Note note, String title, String preview, String dateLabel, String attachmentLabel,
+                 String thumbnailUrl) {
+        this.note = note;
+        this.title = title;
+        this.preview = preview;
+        this.dateLabel = dateLabel;
+        this.attachmentLabel = attachmentLabel;
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
+    public Note getNote() {
+        return note;
+    }
+
+    public int getId() {
+        return note.getId();
+    }
+
+    boolean sameTitle(NoteRowModel other) {
+        return Objects.equals(title, other.title);
+    }
+
+    boolean samePreview(NoteRowModel other) {
+        return Objects.equals(preview, other.preview);
+    }
+
+    boolean sameDate(NoteRowModel other) {
+        return Objects.equals(dateLabel, other.dateLabel);
+    }
+
+    boolean sameAttachment(NoteRowModel other) {
+        return Objects.equals(attachmentLabel, other.attachmentLabel)
+                && Objects.equals(thumbnailUrl, other.thumbnailUrl);
+    }
+}
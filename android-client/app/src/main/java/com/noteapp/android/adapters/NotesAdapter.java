@@ -3,31 +3,83 @@ package com.noteapp.android.adapters;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.noteapp.android.R;
 import com.noteapp.android.models.Note;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 
-public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHolder> {
-    private List<Note> notes;
-    private OnNoteClickListener listener;
+/**
+ * Notes list adapter. New lists are diffed against the current one on ListAdapter's
+ * background thread, keyed on note id, so a refresh only rebinds rows that changed,
+ * and only the fields that changed (the CHANGED_* payload bits). Rows arrive
+ * pre-formatted as {@link NoteRowModel}s, so binding doesn't allocate. Image
+ * attachments show a thumbnail decoded by Glide at the row's thumbnail size.
+ */
+public class NotesAdapter extends ListAdapter<NoteRowModel, NotesAdapter.NoteViewHolder> {
+    // Change payload bits: which parts of a row need rebinding
+    private static final int CHANGED_TITLE = 1;
+    private static final int CHANGED_PREVIEW = 1 << 1;
+    private static final int CHANGED_DATE = 1 << 2;
+    private static final int CHANGED_ATTACHMENT = 1 << 3;
+    private static final int CHANGED_ALL = CHANGED_TITLE | CHANGED_PREVIEW | CHANGED_DATE | CHANGED_ATTACHMENT;
+
+    private static final DiffUtil.ItemCallback<NoteRowModel> DIFF_CALLBACK = new DiffUtil.ItemCallback<NoteRowModel>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull NoteRowModel oldItem, @NonNull NoteRowModel newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull NoteRowModel oldItem, @NonNull NoteRowModel newItem) {
+            return getChangePayload(oldItem, newItem) == null;
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull NoteRowModel oldItem, @NonNull NoteRowModel newItem) {
+            int changed = 0;
+            if (!oldItem.sameTitle(newItem)) {
+                changed |= CHANGED_TITLE;
+            }
+            if (!oldItem.samePreview(newItem)) {
+                changed |= CHANGED_PREVIEW;
+            }
+            if (!oldItem.sameDate(newItem)) {
+                changed |= CHANGED_DATE;
+            }
+            if (!oldItem.sameAttachment(newItem)) {
+                changed |= CHANGED_ATTACHMENT;
+            }
+            return changed == 0 ? null : changed;
+        }
+    };
+
+    private final OnNoteClickListener listener;
 
     public interface OnNoteClickListener {
         void onNoteClick(Note note);
         void onNoteLongClick(Note note);
     }
 
-    public NotesAdapter(List<Note> notes, OnNoteClickListener listener) {
-        this.notes = notes;
+    public NotesAdapter(OnNoteClickListener listener) {
+        super(DIFF_CALLBACK);
         this.listener = listener;
+        // Lets RecyclerView keep views and animations attached to the same note across updates
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
     }
 
     @NonNull
@@ -40,70 +92,101 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
 
     @Override
     public void onBindViewHolder(@NonNull NoteViewHolder holder, int position) {
-        Note note = notes.get(position);
-        holder.bind(note, listener);
+        holder.bind(getItem(position), CHANGED_ALL);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull NoteViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        int changed = 0;
+        for (Object payload : payloads) {
+            changed |= (Integer) payload;
+        }
+        holder.bind(getItem(position), changed);
     }
 
     @Override
-    public int getItemCount() {
-        return notes.size();
+    public void onViewRecycled(@NonNull NoteViewHolder holder) {
+        // Release the thumbnail bitmap back to Glide's pool while the row is off screen
+        holder.clearThumbnail();
     }
 
-    static class NoteViewHolder extends RecyclerView.ViewHolder {
-        private TextView titleText;
-        private TextView contentText;
-        private TextView dateText;
-        private TextView attachmentIndicator;
+    class NoteViewHolder extends RecyclerView.ViewHolder {
+        private final TextView titleText;
+        private final TextView contentText;
+        private final TextView dateText;
+        private final TextView attachmentIndicator;
+        private final ImageView thumbnail;
+        private final int thumbnailSize;
 
-        public NoteViewHolder(@NonNull View itemView) {
+        NoteViewHolder(@NonNull View itemView) {
             super(itemView);
             titleText = itemView.findViewById(R.id.note_title);
             contentText = itemView.findViewById(R.id.note_content);
             dateText = itemView.findViewById(R.id.note_date);
             attachmentIndicator = itemView.findViewById(R.id.attachment_indicator);
+            thumbnail = itemView.findViewById(R.id.note_thumbnail);
+            thumbnailSize = itemView.getResources().getDimensionPixelSize(R.dimen.note_thumbnail_size);
+
+            // Created once per holder; the row is looked up when clicked
+            itemView.setOnClickListener(v -> {
+                int position = getBindingAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    listener.onNoteClick(getItem(position).getNote());
+                }
+            });
+            itemView.setOnLongClickListener(v -> {
+                int position = getBindingAdapterPosition();
+                if (position == RecyclerView.NO_POSITION) {
+                    return false;
+                }
+                listener.onNoteLongClick(getItem(position).getNote());
+                return true;
+            });
         }
 
-        public void bind(Note note, OnNoteClickListener listener) {
-            titleText.setText(note.getTitle());
-            contentText.setText(note.getContent());
-            
-            // Format date
-            try {
-                String dateStr = note.getCreatedAt();
-                if (dateStr != null && !dateStr.isEmpty()) {
-                    dateText.setText(formatDate(dateStr));
+        void bind(NoteRowModel row, int changed) {
+            if ((changed & CHANGED_TITLE) != 0) {
+                titleText.setText(row.title);
+            }
+            if ((changed & CHANGED_PREVIEW) != 0) {
+                contentText.setText(row.preview);
+            }
+            if ((changed & CHANGED_DATE) != 0) {
+                dateText.setText(row.dateLabel);
+            }
+            if ((changed & CHANGED_ATTACHMENT) != 0) {
+                if (row.attachmentLabel != null) {
+                    attachmentIndicator.setText(row.attachmentLabel);
+                    attachmentIndicator.setVisibility(View.VISIBLE);
                 } else {
-                    dateText.setText("");
+                    attachmentIndicator.setVisibility(View.GONE);
                 }
-            } catch (Exception e) {
-                dateText.setText("");
+                bindThumbnail(row.thumbnailUrl);
             }
+        }
 
-            // Show attachment indicator
-            if (note.getFileName() != null && !note.getFileName().isEmpty()) {
-                attachmentIndicator.setVisibility(View.VISIBLE);
-                attachmentIndicator.setText("📎 " + note.getFileName());
-            } else {
-                attachmentIndicator.setVisibility(View.GONE);
+        private void bindThumbnail(String url) {
+            if (url == null) {
+                clearThumbnail();
+                return;
             }
-
-            itemView.setOnClickListener(v -> listener.onNoteClick(note));
-            itemView.setOnLongClickListener(v -> {
-                listener.onNoteLongClick(note);
-                return true;
-            });
+            thumbnail.setVisibility(View.VISIBLE);
+            // Decode straight to the view's size and cache that, not the full-size original
+            Glide.with(thumbnail)
+                    .load(url)
+                    .override(thumbnailSize, thumbnailSize)
+                    .centerCrop()
+                    .diskCacheStrategy(DiskCacheStrategy.RESOURCE)
+                    .into(thumbnail);
         }
 
-        private String formatDate(String dateStr) {
-            try {
-                SimpleDateFormat inputFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.getDefault());
-                Date date = inputFormat.parse(dateStr.substring(0, 19));
-                SimpleDateFormat outputFormat = new SimpleDateFormat("MMM dd, yyyy", Locale.getDefault());
-                return outputFormat.format(date);
-            } catch (Exception e) {
-                return dateStr;
-            }
+        void clearThumbnail() {
+            Glide.with(thumbnail).clear(thumbnail);
+            thumbnail.setVisibility(View.GONE);
         }
     }
 }
-
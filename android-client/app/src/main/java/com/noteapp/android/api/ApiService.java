@@ -1,49 +1,137 @@
 package com.noteapp.android.api;
 
+import android.content.Context;
 import android.util.Log;
+import android.webkit.MimeTypeMap;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
+import com.noteapp.android.BuildConfig;
 import com.noteapp.android.Config;
+import com.noteapp.android.models.Attachment;
 import com.noteapp.android.models.Note;
+import com.noteapp.android.models.NoteOperation;
+import com.noteapp.android.models.NoteOperationResult;
+import com.noteapp.android.models.NotePage;
 import com.noteapp.android.models.SubscriptionStatus;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
-import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
-import okhttp3.logging.HttpLoggingInterceptor;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.Okio;
 
 public class ApiService {
     private static final String TAG = "ApiService";
+    private final RequestDispatcher dispatcher;
+    private final NetworkMetrics networkMetrics;
     private final OkHttpClient client;
     private final Gson gson;
-    private String authToken;
+    private final AuthTokenProvider tokenProvider;
+    private final ChunkedUploader chunkedUploader;
+    private final SingleFlight inFlight = new SingleFlight();
 
-    public ApiService() {
-        HttpLoggingInterceptor logging = new HttpLoggingInterceptor();
-        logging.setLevel(HttpLoggingInterceptor.Level.BODY);
+    private static final long HTTP_CACHE_SIZE = 10L * 1024 * 1024;
+    private static final String UPLOAD_SESSIONS_PREFS = "upload_sessions";
+
+    private final Cache cache;
+
+    public ApiService(Context context, AuthTokenProvider tokenProvider) {
+        this.tokenProvider = tokenProvider;
+        CappedLoggingInterceptor logging = new CappedLoggingInterceptor(
+                CappedLoggingInterceptor.parseLevel(BuildConfig.HTTP_LOG_LEVEL),
+                Config.HTTP_LOG_BODY_CAP);
+
+        dispatcher = new RequestDispatcher();
+        networkMetrics = new NetworkMetrics();
+
+        // ApiService is application-scoped (see NoteApplication), so this pool keeps
+        // TLS connections to the backend warm across activities. HTTP/2 lets
+        // concurrent calls share a single connection.
+        // GET /api/notes and the subscription status are served with an ETag and
+        // "no-cache", so the cache revalidates them with If-None-Match and an
+        // unchanged refresh comes back as a bodyless 304.
+        cache = new Cache(new File(context.getCacheDir(), "http"), HTTP_CACHE_SIZE);
 
         client = new OkHttpClient.Builder()
+                .cache(cache)
+                .connectionPool(new ConnectionPool(5, 5, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .eventListenerFactory(networkMetrics)
+                .addInterceptor(new ResilienceInterceptor())
+                .addInterceptor(new AuthInterceptor(tokenProvider))
+                .authenticator(new TokenAuthenticator(tokenProvider))
                 .addInterceptor(logging)
-                .connectTimeout(30, TimeUnit.SECONDS)
+                .connectTimeout(10, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS)
                 .build();
 
         gson = new Gson();
+        chunkedUploader = new ChunkedUploader(client, gson,
+                context.getSharedPreferences(UPLOAD_SESSIONS_PREFS, Context.MODE_PRIVATE), networkMetrics);
     }
 
-    public void setAuthToken(String token) {
-        this.authToken = token;
+    public RequestDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public NetworkMetrics getNetworkMetrics() {
+        return networkMetrics;
+    }
+
+    // Write the current network metrics as JSON, off the calling thread
+    public void dumpNetworkMetrics(File file) {
+        dispatcher.execute(RequestDispatcher.Priority.BACKGROUND, () -> {
+            try {
+                networkMetrics.dumpTo(file);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write network metrics", e);
+            }
+        });
+    }
+
+    // Number of GETs that piggybacked on an identical request already in flight
+    public long getCoalescedCount() {
+        return inFlight.getCoalescedCount();
+    }
+
+    // Requests answered from the cache, including those revalidated with a 304
+    public int getCacheHitCount() {
+        return cache.hitCount();
+    }
+
+    public int getCacheNetworkCount() {
+        return cache.networkCount();
+    }
+
+    // Drop cached responses, e.g. when the user signs out
+    public void clearCache() {
+        dispatcher.execute(RequestDispatcher.Priority.BACKGROUND, () -> {
+            try {
+                cache.evictAll();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to clear HTTP cache", e);
+            }
+        });
     }
 
     public interface ApiCallback<T> {
@@ -51,29 +139,82 @@ public class ApiService {
         void onError(String error);
     }
 
-    // Get all notes
-    public void getNotes(ApiCallback<List<Note>> callback) {
+    public interface UploadProgressListener {
+        void onProgress(long bytesSent, long totalBytes);
+    }
+
+    // Consumes the response body on the worker thread, before it is closed
+    private interface BodyHandler {
+        void onBody(ResponseBody body) throws IOException;
+        void onError(String error);
+    }
+
+    // Get one page of note summaries (preview instead of content), newest first;
+    // pass null for the first page
+    public void getNotesPage(String cursor, int limit, ApiCallback<NotePage> callback) {
+        HttpUrl.Builder url = HttpUrl.get(Config.API_NOTES).newBuilder()
+                .addQueryParameter("view", "summary")
+                .addQueryParameter("limit", String.valueOf(limit));
+        if (cursor != null) {
+            url.addQueryParameter("cursor", cursor);
+        }
+        HttpUrl pageUrl = url.build();
+
+        ApiCallback<NotePage> shared = inFlight.join(flightKey(pageUrl.toString()), callback);
+        if (shared == null) {
+            return;
+        }
+
         Request request = new Request.Builder()
-                .url(Config.API_NOTES)
-                .addHeader("Authorization", "Bearer " + authToken)
+                .url(pageUrl)
                 .get()
                 .build();
 
-        executeRequest(request, new ApiCallback<String>() {
+        executeRequest(request, RequestDispatcher.Priority.USER_READ, new ApiCallback<String>() {
             @Override
             public void onSuccess(String result) {
                 try {
-                    Type listType = new TypeToken<List<Note>>() {}.getType();
-                    List<Note> notes = gson.fromJson(result, listType);
-                    callback.onSuccess(notes);
+                    NotePage page = gson.fromJson(result, NotePage.class);
+                    shared.onSuccess(page);
                 } catch (Exception e) {
-                    callback.onError("Failed to parse response: " + e.getMessage());
+                    shared.onError("Failed to parse response: " + e.getMessage());
                 }
             }
 
             @Override
             public void onError(String error) {
-                callback.onError(error);
+                shared.onError(error);
+            }
+        });
+    }
+
+    // Get one note with its full content
+    public void getNote(int noteId, ApiCallback<Note> callback) {
+        String url = Config.API_NOTES + "/" + noteId;
+        ApiCallback<Note> shared = inFlight.join(flightKey(url), callback);
+        if (shared == null) {
+            return;
+        }
+
+        Request request = new Request.Builder()
+                .url(url)
+                .get()
+                .build();
+
+        executeRequest(request, RequestDispatcher.Priority.USER_READ, new ApiCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                try {
+                    Note note = gson.fromJson(result, Note.class);
+                    shared.onSuccess(note);
+                } catch (Exception e) {
+                    shared.onError("Failed to parse response: " + e.getMessage());
+                }
+            }
+
+            @Override
+            public void onError(String error) {
+                shared.onError(error);
             }
         });
     }
@@ -83,13 +224,14 @@ public class ApiService {
         String json = gson.toJson(note);
         RequestBody body = RequestBody.create(json, MediaType.parse("application/json"));
 
+        // The key lets the server deduplicate a create that is retried after a timeout
         Request request = new Request.Builder()
                 .url(Config.API_NOTES)
-                .addHeader("Authorization", "Bearer " + authToken)
+                .header(ResilienceInterceptor.IDEMPOTENCY_KEY, UUID.randomUUID().toString())
                 .post(body)
                 .build();
 
-        executeRequest(request, new ApiCallback<String>() {
+        executeRequest(request, RequestDispatcher.Priority.USER_WRITE, new ApiCallback<String>() {
             @Override
             public void onSuccess(String result) {
                 try {
@@ -114,11 +256,10 @@ public class ApiService {
 
         Request request = new Request.Builder()
                 .url(Config.API_NOTES + "/" + noteId)
-                .addHeader("Authorization", "Bearer " + authToken)
                 .put(body)
                 .build();
 
-        executeRequest(request, new ApiCallback<String>() {
+        executeRequest(request, RequestDispatcher.Priority.USER_WRITE, new ApiCallback<String>() {
             @Override
             public void onSuccess(String result) {
                 try {
@@ -136,15 +277,47 @@ public class ApiService {
         });
     }
 
+    // Append an uploaded file to a note's attachments; primary also makes it the note's fileUrl/fileName.
+    // Safe to retry: the server ignores an attachment whose url is already listed.
+    public void addAttachment(int noteId, Attachment attachment, boolean primary, ApiCallback<Note> callback) {
+        JsonObject patch = new JsonObject();
+        patch.add("attachment", gson.toJsonTree(attachment));
+        if (primary) {
+            patch.addProperty("fileUrl", attachment.getUrl());
+            patch.addProperty("fileName", attachment.getName());
+        }
+        RequestBody body = RequestBody.create(gson.toJson(patch), MediaType.parse("application/json"));
+
+        Request request = new Request.Builder()
+                .url(Config.API_NOTES + "/" + noteId)
+                .patch(body)
+                .build();
+
+        executeRequest(request, RequestDispatcher.Priority.USER_WRITE, new ApiCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                try {
+                    callback.onSuccess(gson.fromJson(result, Note.class));
+                } catch (Exception e) {
+                    callback.onError("Failed to parse response: " + e.getMessage());
+                }
+            }
+
+            @Override
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        });
+    }
+
     // Delete a note
     public void deleteNote(int noteId, ApiCallback<Void> callback) {
         Request request = new Request.Builder()
                 .url(Config.API_NOTES + "/" + noteId)
-                .addHeader("Authorization", "Bearer " + authToken)
                 .delete()
                 .build();
 
-        executeRequest(request, new ApiCallback<String>() {
+        executeRequest(request, RequestDispatcher.Priority.USER_WRITE, new ApiCallback<String>() {
             @Override
             public void onSuccess(String result) {
                 callback.onSuccess(null);
@@ -157,42 +330,156 @@ public class ApiService {
         });
     }
 
+    // Replay queued outbox operations in one request; results come back in the same order
+    public void replayBatch(List<NoteOperation> operations,
+                            ApiCallback<List<NoteOperationResult>> callback) {
+        JsonObject payload = new JsonObject();
+        payload.add("operations", gson.toJsonTree(operations));
+        RequestBody body = RequestBody.create(gson.toJson(payload), MediaType.parse("application/json"));
+
+        // Safe to resend: every create in the batch carries its own idempotency key
+        Request request = new Request.Builder()
+                .url(Config.API_NOTES_BATCH)
+                .header(ResilienceInterceptor.IDEMPOTENCY_KEY, UUID.randomUUID().toString())
+                .post(body)
+                .build();
+
+        executeRequest(request, RequestDispatcher.Priority.USER_WRITE, new ApiCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                List<NoteOperationResult> results;
+                try {
+                    JsonObject json = gson.fromJson(result, JsonObject.class);
+                    results = gson.fromJson(json.get("results"),
+                            new TypeToken<List<NoteOperationResult>>() {}.getType());
+                } catch (Exception e) {
+                    callback.onError("Failed to parse response: " + e.getMessage());
+                    return;
+                }
+                callback.onSuccess(results != null ? results : new ArrayList<>());
+            }
+
+            @Override
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        });
+    }
+
     // Upload file
     public void uploadFile(File file, ApiCallback<String> callback) {
-        RequestBody requestBody = new MultipartBody.Builder()
-                .setType(MultipartBody.FORM)
-                .addFormDataPart("file", file.getName(),
-                        RequestBody.create(file, MediaType.parse("application/octet-stream")))
-                .build();
+        uploadFile(file, null, callback);
+    }
+
+    // Upload file in resumable chunks, reporting progress on the worker thread
+    public void uploadFile(File file, UploadProgressListener progressListener,
+                           ApiCallback<String> callback) {
+        dispatcher.execute(RequestDispatcher.Priority.USER_WRITE, () -> {
+            String result;
+            try {
+                result = chunkedUploader.upload(file, guessMimeType(file), progressListener);
+            } catch (ChunkedUploader.HttpStatusException e) {
+                callback.onError(e.getMessage());
+                return;
+            } catch (IOException | JsonParseException e) {
+                Log.e(TAG, "Upload failed", e);
+                callback.onError("Network error: " + e.getMessage());
+                return;
+            }
+            callback.onSuccess(result);
+        });
+    }
+
+    // Download a file (e.g. an attachment) to target; concurrent downloads of the same URL share one request
+    public void downloadFile(String url, File target, ApiCallback<File> callback) {
+        ApiCallback<File> shared = inFlight.join(flightKey(url), callback);
+        if (shared == null) {
+            return;
+        }
 
         Request request = new Request.Builder()
-                .url(Config.API_UPLOAD)
-                .addHeader("Authorization", "Bearer " + authToken)
-                .post(requestBody)
+                .url(url)
+                .get()
                 .build();
 
-        executeRequest(request, callback);
+        executeStreaming(request, RequestDispatcher.Priority.USER_READ, new BodyHandler() {
+            @Override
+            public void onBody(ResponseBody body) throws IOException {
+                // Write to a temp file first so a dropped connection never leaves a truncated target
+                File partial = new File(target.getPath() + ".part");
+                try (BufferedSink sink = Okio.buffer(Okio.sink(partial))) {
+                    sink.writeAll(body.source());
+                }
+                if (!partial.renameTo(target)) {
+                    partial.delete();
+                    throw new IOException("Could not move download to " + target);
+                }
+                shared.onSuccess(target);
+            }
+
+            @Override
+            public void onError(String error) {
+                shared.onError(error);
+            }
+        });
     }
 
     // Get subscription status
     public void getSubscriptionStatus(ApiCallback<SubscriptionStatus> callback) {
+        ApiCallback<SubscriptionStatus> shared = inFlight.join(flightKey(Config.API_SUBSCRIPTION), callback);
+        if (shared == null) {
+            return;
+        }
+
         Request request = new Request.Builder()
                 .url(Config.API_SUBSCRIPTION)
-                .addHeader("Authorization", "Bearer " + authToken)
                 .get()
                 .build();
 
-        executeRequest(request, new ApiCallback<String>() {
+        executeRequest(request, RequestDispatcher.Priority.BACKGROUND, new ApiCallback<String>() {
             @Override
             public void onSuccess(String result) {
                 try {
                     SubscriptionStatus status = gson.fromJson(result, SubscriptionStatus.class);
-                    callback.onSuccess(status);
+                    shared.onSuccess(status);
                 } catch (Exception e) {
-                    callback.onError("Failed to parse response: " + e.getMessage());
+                    shared.onError("Failed to parse response: " + e.getMessage());
                 }
             }
 
+            @Override
+            public void onError(String error) {
+                shared.onError(error);
+            }
+        });
+    }
+
+    // Coalescing key for a GET; per user, so a request still running at sign-out
+    // never answers the next account's identical call
+    private String flightKey(String url) {
+        return "GET " + tokenProvider.getUserId() + " " + url;
+    }
+
+    private static String guessMimeType(File file) {
+        return guessMimeType(file.getName());
+    }
+
+    // MIME type from a file name's extension, falling back to a generic binary type
+    public static String guessMimeType(String name) {
+        int dot = name != null ? name.lastIndexOf('.') : -1;
+        String type = dot >= 0 ? MimeTypeMap.getSingleton()
+                .getMimeTypeFromExtension(name.substring(dot + 1).toLowerCase(Locale.US)) : null;
+        return type != null ? type : "application/octet-stream";
+    }
+
+    private void executeRequest(Request request, RequestDispatcher.Priority priority,
+                                ApiCallback<String> callback) {
+        executeStreaming(request, priority, new BodyHandler() {
+            @Override
+            public void onBody(ResponseBody body) throws IOException {
+                callback.onSuccess(body.string());
+            }
+
             @Override
             public void onError(String error) {
                 callback.onError(error);
@@ -200,22 +487,22 @@ public class ApiService {
         });
     }
 
-    private void executeRequest(Request request, ApiCallback<String> callback) {
-        new Thread(() -> {
-            try {
-                Response response = client.newCall(request).execute();
-                String responseBody = response.body() != null ? response.body().string() : "";
+    private void executeStreaming(Request request, RequestDispatcher.Priority priority,
+                                  BodyHandler handler) {
+        dispatcher.execute(priority, () -> {
+            try (Response response = client.newCall(request).execute()) {
+                ResponseBody body = response.body();
 
-                if (response.isSuccessful()) {
-                    callback.onSuccess(responseBody);
+                if (response.isSuccessful() && body != null) {
+                    handler.onBody(body);
                 } else {
-                    callback.onError("Error " + response.code() + ": " + responseBody);
+                    String responseBody = body != null ? body.string() : "";
+                    handler.onError("Error " + response.code() + ": " + responseBody);
                 }
             } catch (IOException e) {
                 Log.e(TAG, "Network error", e);
-                callback.onError("Network error: " + e.getMessage());
+                handler.onError("Network error: " + e.getMessage());
             }
-        }).start();
+        });
     }
 }
-
@@ -0,0 +1,40 @@
+package com.noteapp.android.api;
+
+import com.noteapp.android.Config;
+
+import java.io.IOException;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Adds the cached Firebase ID token to every request to our backend that doesn't
+ * already carry one. Other hosts (attachment downloads from storage) never see it.
+ */
+public class AuthInterceptor implements Interceptor {
+    private static final String BACKEND_HOST = HttpUrl.get(Config.BASE_URL).host();
+
+    private final AuthTokenProvider tokenProvider;
+
+    public AuthInterceptor(AuthTokenProvider tokenProvider) {
+        this.tokenProvider = tokenProvider;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.header("Authorization") != null || !BACKEND_HOST.equals(request.url().host())) {
+            return chain.proceed(request);
+        }
+
+        String token = tokenProvider.getToken();
+        if (token == null) {
+            return chain.proceed(request);
+        }
+        return chain.proceed(request.newBuilder()
+                .header("Authorization", "Bearer " + token)
+                .build());
+    }
+}
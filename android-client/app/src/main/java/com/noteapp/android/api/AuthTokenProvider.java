@@ -0,0 +1,142 @@
+package com.noteapp.android.api;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.auth.GetTokenResult;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the Firebase ID token for API calls.
+ *
+ * The token is reused until shortly before it expires and is refreshed in the
+ * background ahead of that, so requests normally never wait on Firebase. Blocking
+ * methods must be called off the main thread (OkHttp interceptors run on the
+ * request dispatcher threads). The token is cached for the user it was fetched
+ * for, so a fetch that finishes after sign-out is never handed to the next account.
+ */
+public class AuthTokenProvider {
+    private static final String TAG = "AuthTokenProvider";
+    // Treat the token as expired this long before Firebase does
+    private static final long EXPIRY_MARGIN_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long FETCH_TIMEOUT_SECONDS = 30;
+
+    private final FirebaseAuth auth;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable proactiveRefresh = this::refreshInBackground;
+
+    private String token;
+    // Firebase uid the cached token belongs to
+    private String tokenUserId;
+    private long expiresAtMillis;
+
+    public AuthTokenProvider(FirebaseAuth auth) {
+        this.auth = auth;
+        auth.addAuthStateListener(firebaseAuth -> {
+            if (firebaseAuth.getCurrentUser() == null) {
+                clear();
+            } else {
+                refreshInBackground();
+            }
+        });
+    }
+
+    // Returns a valid token, fetching one only if the cached token is missing or about to expire
+    public String getToken() {
+        String userId = getUserId();
+        synchronized (this) {
+            if (token != null && tokenUserId.equals(userId) && System.currentTimeMillis() < expiresAtMillis) {
+                return token;
+            }
+        }
+        return fetch(false);
+    }
+
+    /**
+     * Called after the server rejected {@code rejectedToken}. Forces a refresh unless
+     * another thread already replaced that token.
+     */
+    public String refreshToken(String rejectedToken) {
+        String userId = getUserId();
+        synchronized (this) {
+            if (token != null && !token.equals(rejectedToken) && tokenUserId.equals(userId)
+                    && System.currentTimeMillis() < expiresAtMillis) {
+                return token;
+            }
+        }
+        return fetch(true);
+    }
+
+    // Firebase uid of the signed-in user, or null
+    public String getUserId() {
+        FirebaseUser user = auth.getCurrentUser();
+        return user != null ? user.getUid() : null;
+    }
+
+    public synchronized void clear() {
+        token = null;
+        tokenUserId = null;
+        expiresAtMillis = 0;
+        mainHandler.removeCallbacks(proactiveRefresh);
+    }
+
+    private String fetch(boolean forceRefresh) {
+        FirebaseUser user = auth.getCurrentUser();
+        if (user == null) {
+            return null;
+        }
+        try {
+            GetTokenResult result = Tasks.await(user.getIdToken(forceRefresh),
+                    FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            // Signed out, or into another account, while waiting: the token isn't for this request
+            return store(user.getUid(), result) ? result.getToken() : null;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to get ID token", e);
+            return null;
+        }
+    }
+
+    // Non-blocking refresh used to keep the cache warm
+    private void refreshInBackground() {
+        FirebaseUser user = auth.getCurrentUser();
+        if (user == null) {
+            return;
+        }
+        boolean expiringSoon;
+        synchronized (this) {
+            expiringSoon = token == null || System.currentTimeMillis() >= expiresAtMillis;
+        }
+        String userId = user.getUid();
+        Task<GetTokenResult> task = user.getIdToken(expiringSoon && token != null);
+        task.addOnCompleteListener(result -> {
+            if (result.isSuccessful()) {
+                store(userId, result.getResult());
+            } else {
+                Log.w(TAG, "Background token refresh failed", result.getException());
+            }
+        });
+    }
+
+    // Caches a token fetched for userId; false, and nothing cached, if that user has since signed out
+    private boolean store(String userId, GetTokenResult result) {
+        long expiresAt = TimeUnit.SECONDS.toMillis(result.getExpirationTimestamp()) - EXPIRY_MARGIN_MS;
+        synchronized (this) {
+            if (!userId.equals(getUserId())) {
+                return false;
+            }
+            token = result.getToken();
+            tokenUserId = userId;
+            expiresAtMillis = expiresAt;
+        }
+        mainHandler.removeCallbacks(proactiveRefresh);
+        mainHandler.postDelayed(proactiveRefresh,
+                Math.max(0, expiresAt - System.currentTimeMillis()));
+        return true;
+    }
+}
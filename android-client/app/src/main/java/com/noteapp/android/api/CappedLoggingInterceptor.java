@@ -0,0 +1,154 @@
+package com.noteapp.android.api;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+/**
+ * Logcat logging for API calls that stays off the hot path.
+ *
+ * The level comes from the build type (see {@code HTTP_LOG_LEVEL} in build.gradle.kts),
+ * so release builds log nothing. At {@link Level#BODY} only textual bodies are logged,
+ * and never more than {@code bodyCap} bytes: multipart, binary and one-shot bodies are
+ * skipped. Responses are peeked rather than buffered: only the logged bytes are copied,
+ * and the body is left unread for its caller, so a large download that is streamed
+ * to disk is never held in memory just to be logged.
+ */
+public class CappedLoggingInterceptor implements Interceptor {
+    private static final String TAG = "ApiHttp";
+
+    public enum Level {
+        NONE,
+        BASIC,
+        HEADERS,
+        BODY
+    }
+
+    private final Level level;
+    private final long bodyCap;
+
+    public CappedLoggingInterceptor(Level level, long bodyCap) {
+        this.level = level;
+        this.bodyCap = bodyCap;
+    }
+
+    // Unknown names fall back to NONE so a typo never turns logging on in release
+    public static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return Level.NONE;
+        }
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (level == Level.NONE) {
+            return chain.proceed(request);
+        }
+
+        RequestBody requestBody = request.body();
+        StringBuilder log = new StringBuilder("--> ")
+                .append(request.method()).append(' ').append(request.url());
+        if (requestBody != null) {
+            log.append(" (").append(describeLength(requestBody.contentLength())).append(')');
+        }
+        if (level.compareTo(Level.HEADERS) >= 0) {
+            appendHeaders(log, request.headers());
+        }
+        if (level == Level.BODY && requestBody != null) {
+            appendRequestBody(log, requestBody);
+        }
+        Log.d(TAG, log.toString());
+
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            Log.d(TAG, "<-- HTTP FAILED: " + e);
+            throw e;
+        }
+        long tookMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        ResponseBody responseBody = response.body();
+        log = new StringBuilder("<-- ")
+                .append(response.code()).append(' ').append(request.url())
+                .append(" (").append(tookMs).append("ms");
+        if (responseBody != null) {
+            log.append(", ").append(describeLength(responseBody.contentLength()));
+        }
+        log.append(')');
+        if (level.compareTo(Level.HEADERS) >= 0) {
+            appendHeaders(log, response.headers());
+        }
+        if (level == Level.BODY && responseBody != null) {
+            if (isLoggable(responseBody.contentType())) {
+                ResponseBody peeked = response.peekBody(bodyCap);
+                log.append('\n').append(peeked.string());
+                if (responseBody.contentLength() < 0 || responseBody.contentLength() > bodyCap) {
+                    log.append("\n(truncated to ").append(bodyCap).append(" bytes)");
+                }
+            } else {
+                log.append("\n(binary body omitted)");
+            }
+        }
+        Log.d(TAG, log.toString());
+        return response;
+    }
+
+    private void appendRequestBody(StringBuilder log, RequestBody body) throws IOException {
+        long length = body.contentLength();
+        if (!isLoggable(body.contentType()) || body.isOneShot() || body.isDuplex()) {
+            log.append("\n(binary body omitted)");
+        } else if (length < 0 || length > bodyCap) {
+            log.append("\n(body omitted, ").append(describeLength(length)).append(')');
+        } else {
+            Buffer buffer = new Buffer();
+            body.writeTo(buffer);
+            log.append('\n').append(buffer.readString(charsetOf(body.contentType())));
+        }
+    }
+
+    private static void appendHeaders(StringBuilder log, Headers headers) {
+        for (int i = 0; i < headers.size(); i++) {
+            String name = headers.name(i);
+            log.append('\n').append(name).append(": ")
+                    .append("Authorization".equalsIgnoreCase(name) ? "██" : headers.value(i));
+        }
+    }
+
+    // Text and JSON only; multipart, images, octet-stream etc. are never logged
+    private static boolean isLoggable(MediaType type) {
+        if (type == null) {
+            return false;
+        }
+        String subtype = type.subtype().toLowerCase(Locale.US);
+        return "text".equals(type.type())
+                || subtype.equals("json") || subtype.endsWith("+json")
+                || subtype.equals("x-www-form-urlencoded");
+    }
+
+    private static Charset charsetOf(MediaType type) {
+        Charset charset = type != null ? type.charset(StandardCharsets.UTF_8) : null;
+        return charset != null ? charset : StandardCharsets.UTF_8;
+    }
+
+    private static String describeLength(long length) {
+        return length >= 0 ? length + "-byte body" : "unknown-length body";
+    }
+}
@@ -0,0 +1,240 @@
+package com.noteapp.android.api;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.annotations.SerializedName;
+import com.noteapp.android.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Client side of the resumable upload protocol in server.js ({@code /api/uploads}).
+ *
+ * The file is sent in fixed-size chunks with one PUT each. The upload id is kept in
+ * SharedPreferences per file, so if the connection drops (or the app restarts) the
+ * next attempt asks the server which chunks it already has and continues from there.
+ * Before any of that, the file's SHA-256 is looked up on the server; if this user
+ * already uploaded the same bytes, the stored copy is reused and nothing is sent.
+ * Blocking; run on a dispatcher thread.
+ */
+class ChunkedUploader {
+    private static final String TAG = "ChunkedUploader";
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+    // Files are hashed through read-only mappings of at most this many bytes at a time
+    private static final long HASH_WINDOW_BYTES = 64L * 1024 * 1024;
+
+    static class HttpStatusException extends IOException {
+        final int code;
+
+        HttpStatusException(int code, String body) {
+            super("Error " + code + ": " + body);
+            this.code = code;
+        }
+    }
+
+    private static class UploadStatus {
+        @SerializedName("uploadId")
+        String uploadId;
+
+        @SerializedName("chunkSize")
+        int chunkSize;
+
+        @SerializedName("chunkCount")
+        int chunkCount;
+
+        @SerializedName("receivedChunks")
+        List<Integer> receivedChunks;
+    }
+
+    private final OkHttpClient client;
+    private final Gson gson;
+    private final SharedPreferences sessions;
+    private final NetworkMetrics metrics;
+
+    ChunkedUploader(OkHttpClient client, Gson gson, SharedPreferences sessions, NetworkMetrics metrics) {
+        this.client = client;
+        this.gson = gson;
+        this.sessions = sessions;
+        this.metrics = metrics;
+    }
+
+    // Uploads the file and returns the server's {fileUrl, fileName, filePath} JSON
+    String upload(File file, String mimeType, ApiService.UploadProgressListener listener) throws IOException {
+        String sha256 = sha256(file);
+        JsonObject existing = reuseExisting(sha256);
+        if (existing != null) {
+            Log.d(TAG, "Reusing uploaded copy of " + file.getName() + ", " + file.length() + " bytes not sent");
+            metrics.recordDedupedUpload(file.length());
+            if (listener != null) {
+                listener.onProgress(file.length(), file.length());
+            }
+            existing.addProperty("fileName", file.getName());
+            return gson.toJson(existing);
+        }
+
+        String sessionKey = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        UploadStatus status = resume(sessions.getString(sessionKey, null));
+        if (status == null) {
+            status = start(file, mimeType, sha256);
+            sessions.edit().putString(sessionKey, status.uploadId).apply();
+        } else {
+            Log.d(TAG, "Resuming " + status.uploadId + " with "
+                    + status.receivedChunks.size() + "/" + status.chunkCount + " chunks");
+        }
+
+        Set<Integer> received = new HashSet<>(status.receivedChunks);
+        long total = file.length();
+        long sent = 0;
+        for (int index : received) {
+            sent += chunkLength(index, status.chunkSize, total);
+        }
+        if (listener != null) {
+            listener.onProgress(sent, total);
+        }
+
+        byte[] buffer = new byte[status.chunkSize];
+        try (RandomAccessFile source = new RandomAccessFile(file, "r")) {
+            for (int index = 0; index < status.chunkCount; index++) {
+                if (received.contains(index)) {
+                    continue;
+                }
+                int length = chunkLength(index, status.chunkSize, total);
+                source.seek((long) index * status.chunkSize);
+                source.readFully(buffer, 0, length);
+
+                Request request = new Request.Builder()
+                        .url(Config.API_UPLOADS + "/" + status.uploadId + "/chunks/" + index)
+                        .put(RequestBody.create(buffer, OCTET_STREAM, 0, length))
+                        .build();
+                execute(request);
+
+                sent += length;
+                if (listener != null) {
+                    listener.onProgress(sent, total);
+                }
+            }
+        }
+
+        Request complete = new Request.Builder()
+                .url(Config.API_UPLOADS + "/" + status.uploadId + "/complete")
+                .post(RequestBody.create(new byte[0], JSON))
+                .build();
+        String result = execute(complete);
+        sessions.edit().remove(sessionKey).apply();
+        return result;
+    }
+
+    // The server's {fileUrl, filePath, fileSize} for content this user already uploaded, or null;
+    // the server counts it as reused. Only an optimization, so any failure falls through to the upload
+    private JsonObject reuseExisting(String sha256) throws IOException {
+        Request request = new Request.Builder()
+                .url(Config.API_UPLOADS + "/by-hash/" + sha256 + "/reuse")
+                .post(RequestBody.create(new byte[0], JSON))
+                .build();
+        try {
+            return gson.fromJson(execute(request), JsonObject.class);
+        } catch (HttpStatusException e) {
+            if (e.code != 404) {
+                Log.w(TAG, "Upload lookup failed: " + e.getMessage());
+            }
+            return null;
+        } catch (IOException e) {
+            // Network error or open breaker; the upload's own requests decide whether to give up
+            Log.w(TAG, "Upload lookup failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private UploadStatus start(File file, String mimeType, String sha256) throws IOException {
+        JsonObject body = new JsonObject();
+        body.addProperty("fileName", file.getName());
+        body.addProperty("fileSize", file.length());
+        body.addProperty("mimeType", mimeType);
+        body.addProperty("sha256", sha256);
+        body.addProperty("chunkSize", Config.UPLOAD_CHUNK_SIZE);
+
+        Request request = new Request.Builder()
+                .url(Config.API_UPLOADS)
+                .post(RequestBody.create(gson.toJson(body), JSON))
+                .build();
+        return gson.fromJson(execute(request), UploadStatus.class);
+    }
+
+    // Returns the server-side state of a previous session, or null if it is gone
+    private UploadStatus resume(String uploadId) throws IOException {
+        if (uploadId == null) {
+            return null;
+        }
+        Request request = new Request.Builder()
+                .url(Config.API_UPLOADS + "/" + uploadId)
+                .get()
+                .build();
+        try {
+            return gson.fromJson(execute(request), UploadStatus.class);
+        } catch (HttpStatusException e) {
+            if (e.code == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private String execute(Request request) throws IOException {
+        try (Response response = client.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            String text = body != null ? body.string() : "";
+            if (!response.isSuccessful()) {
+                throw new HttpStatusException(response.code(), text);
+            }
+            return text;
+        }
+    }
+
+    // Lower-case hex SHA-256 of the file, read through memory mappings rather than a heap buffer
+    static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (RandomAccessFile source = new RandomAccessFile(file, "r");
+             FileChannel channel = source.getChannel()) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += HASH_WINDOW_BYTES) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(HASH_WINDOW_BYTES, size - position));
+                digest.update(window);
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static int chunkLength(int index, int chunkSize, long total) {
+        return (int) Math.min(chunkSize, total - (long) index * chunkSize);
+    }
+}
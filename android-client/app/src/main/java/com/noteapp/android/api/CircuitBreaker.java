@@ -0,0 +1,81 @@
+package com.noteapp.android.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-endpoint circuit breaker.
+ *
+ * After {@link #FAILURE_THRESHOLD} consecutive failures the circuit opens and calls
+ * fail immediately for {@link #OPEN_MS}. After that a single trial call is let through
+ * (half-open); success closes the circuit, failure opens it again. A trial that is
+ * abandoned without either outcome must be reported too, or no call would pass again.
+ */
+class CircuitBreaker {
+    static final int FAILURE_THRESHOLD = 5;
+    static final long OPEN_MS = TimeUnit.SECONDS.toMillis(30);
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    // Returns false if the call should fail fast without touching the network
+    synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < OPEN_MS) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            case HALF_OPEN:
+            default:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= FAILURE_THRESHOLD) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    // The call ended with no verdict (cancelled, or a bug threw); lets the next one be the trial
+    synchronized void onAbandoned() {
+        trialInFlight = false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    // Time left before a trial call is allowed, 0 when not open
+    synchronized long getRemainingOpenMs() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, OPEN_MS - (System.currentTimeMillis() - openedAt));
+    }
+}
@@ -0,0 +1,73 @@
+package com.noteapp.android.api;
+
+/**
+ * Fixed-size latency histogram with roughly logarithmic buckets from 1ms to ~4min.
+ *
+ * Memory does not grow with the number of samples; percentiles are accurate to
+ * the width of a bucket (about 20%).
+ */
+public class LatencyHistogram {
+    private static final double GROWTH = 1.2;
+    private static final long[] BOUNDS = buildBounds();
+
+    private final long[] counts = new long[BOUNDS.length + 1];
+    private long count;
+    private long sumMs;
+    private long maxMs;
+
+    private static long[] buildBounds() {
+        long[] bounds = new long[64];
+        double bound = 1;
+        int size = 0;
+        long last = 0;
+        while (size < bounds.length) {
+            long rounded = Math.round(bound);
+            if (rounded > last) {
+                bounds[size++] = rounded;
+                last = rounded;
+            }
+            bound *= GROWTH;
+        }
+        return bounds;
+    }
+
+    public synchronized void record(long millis) {
+        long value = Math.max(0, millis);
+        int index = 0;
+        while (index < BOUNDS.length && value > BOUNDS[index]) {
+            index++;
+        }
+        counts[index]++;
+        count++;
+        sumMs += value;
+        maxMs = Math.max(maxMs, value);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMeanMs() {
+        return count == 0 ? 0 : sumMs / count;
+    }
+
+    public synchronized long getMaxMs() {
+        return maxMs;
+    }
+
+    // Upper bound of the bucket holding the given quantile (0..1), capped at the observed max
+    public synchronized long percentile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i < BOUNDS.length ? Math.min(BOUNDS[i], maxMs) : maxMs;
+            }
+        }
+        return maxMs;
+    }
+}
@@ -0,0 +1,349 @@
+package com.noteapp.android.api;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * Per-endpoint network timings collected from OkHttp call events.
+ *
+ * For every call this records DNS, connect, TLS, time-to-first-byte, body transfer
+ * and total time, bytes sent and received, whether a pooled connection was reused
+ * and how the HTTP cache answered. Stats are grouped by method and endpoint
+ * (numeric ids collapsed) and can be queried in-process or dumped to a JSON file.
+ * Uploads skipped because the server already had the same bytes are counted too.
+ */
+public class NetworkMetrics implements EventListener.Factory {
+
+    public enum Phase {
+        DNS,
+        CONNECT,
+        TLS,
+        TTFB,
+        BODY,
+        TOTAL
+    }
+
+    public static class EndpointStats {
+        private final Map<Phase, LatencyHistogram> histograms = new LinkedHashMap<>();
+        private long calls;
+        private long failures;
+        private long bytesOut;
+        private long bytesIn;
+        private long newConnections;
+        private long reusedConnections;
+        private long cacheHits;
+        private long conditionalHits;
+
+        EndpointStats() {
+            for (Phase phase : Phase.values()) {
+                histograms.put(phase, new LatencyHistogram());
+            }
+        }
+
+        public LatencyHistogram getHistogram(Phase phase) {
+            return histograms.get(phase);
+        }
+
+        public synchronized long getCalls() {
+            return calls;
+        }
+
+        public synchronized long getFailures() {
+            return failures;
+        }
+
+        public synchronized long getBytesOut() {
+            return bytesOut;
+        }
+
+        public synchronized long getBytesIn() {
+            return bytesIn;
+        }
+
+        public synchronized double getReuseRatio() {
+            long total = newConnections + reusedConnections;
+            return total == 0 ? 0 : reusedConnections / (double) total;
+        }
+
+        synchronized void record(CallListener call, boolean failed) {
+            calls++;
+            if (failed) {
+                failures++;
+            }
+            bytesOut += call.bytesOut;
+            bytesIn += call.bytesIn;
+            if (call.connectionAcquired) {
+                if (call.connectStart > 0) {
+                    newConnections++;
+                } else {
+                    reusedConnections++;
+                }
+            }
+            if (call.cacheHit) {
+                cacheHits++;
+            }
+            if (call.conditionalHit) {
+                conditionalHits++;
+            }
+        }
+
+        synchronized Map<String, Object> snapshot() {
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("calls", calls);
+            out.put("failures", failures);
+            out.put("bytesOut", bytesOut);
+            out.put("bytesIn", bytesIn);
+            out.put("newConnections", newConnections);
+            out.put("reusedConnections", reusedConnections);
+            out.put("cacheHits", cacheHits);
+            out.put("conditionalCacheHits", conditionalHits);
+            for (Map.Entry<Phase, LatencyHistogram> entry : histograms.entrySet()) {
+                LatencyHistogram histogram = entry.getValue();
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                Map<String, Object> timing = new LinkedHashMap<>();
+                timing.put("count", histogram.getCount());
+                timing.put("p50", histogram.percentile(0.50));
+                timing.put("p95", histogram.percentile(0.95));
+                timing.put("p99", histogram.percentile(0.99));
+                timing.put("max", histogram.getMaxMs());
+                out.put(entry.getKey().name().toLowerCase(java.util.Locale.US) + "Ms", timing);
+            }
+            return out;
+        }
+    }
+
+    private final Map<String, EndpointStats> endpoints = new TreeMap<>();
+    private long dedupedUploads;
+    private long uploadBytesSaved;
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallListener();
+    }
+
+    public synchronized EndpointStats getEndpointStats(String method, String endpoint) {
+        return endpoints.get(method + " " + endpoint);
+    }
+
+    // Share of calls, across all endpoints, that ran on a pooled connection
+    public synchronized double getReuseRatio() {
+        long reused = 0;
+        long total = 0;
+        for (EndpointStats stats : endpoints.values()) {
+            synchronized (stats) {
+                reused += stats.reusedConnections;
+                total += stats.reusedConnections + stats.newConnections;
+            }
+        }
+        return total == 0 ? 0 : reused / (double) total;
+    }
+
+    // An upload that reused an existing copy on the server instead of sending fileSize bytes
+    public synchronized void recordDedupedUpload(long fileSize) {
+        dedupedUploads++;
+        uploadBytesSaved += fileSize;
+    }
+
+    public synchronized long getDedupedUploads() {
+        return dedupedUploads;
+    }
+
+    public synchronized long getUploadBytesSaved() {
+        return uploadBytesSaved;
+    }
+
+    public synchronized String toJson() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("capturedAt", System.currentTimeMillis());
+        out.put("connectionReuseRatio", getReuseRatio());
+        Map<String, Object> dedup = new LinkedHashMap<>();
+        dedup.put("uploads", dedupedUploads);
+        dedup.put("bytesSaved", uploadBytesSaved);
+        out.put("uploadDedup", dedup);
+        Map<String, Object> byEndpoint = new LinkedHashMap<>();
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            byEndpoint.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        out.put("endpoints", byEndpoint);
+        return new GsonBuilder().setPrettyPrinting().create().toJson(out);
+    }
+
+    public void dumpTo(File file) throws IOException {
+        String json = toJson();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(json);
+        }
+    }
+
+    private synchronized EndpointStats statsFor(String key) {
+        EndpointStats stats = endpoints.get(key);
+        if (stats == null) {
+            stats = new EndpointStats();
+            endpoints.put(key, stats);
+        }
+        return stats;
+    }
+
+    // One instance per call; OkHttp delivers a call's events sequentially
+    class CallListener extends EventListener {
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long secureConnectStart;
+        private long requestStart;
+        private long responseBodyStart;
+        private long dnsMs;
+        private long connectMs;
+        private long tlsMs;
+        private long ttfbMs = -1;
+        private long bodyMs = -1;
+        long bytesOut;
+        long bytesIn;
+        boolean connectionAcquired;
+        boolean cacheHit;
+        boolean conditionalHit;
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+            dnsMs += elapsedMs(dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            tlsMs += elapsedMs(secureConnectStart);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+            connectMs += elapsedMs(connectStart);
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress address, Proxy proxy,
+                                  Protocol protocol, IOException ioe) {
+            connectMs += elapsedMs(connectStart);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            connectionAcquired = true;
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            requestStart = System.nanoTime();
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            bytesOut += byteCount;
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            // Time from the last request write starting to the first response byte
+            ttfbMs = elapsedMs(requestStart);
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            responseBodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            bytesIn += byteCount;
+            bodyMs = elapsedMs(responseBodyStart);
+        }
+
+        @Override
+        public void cacheHit(Call call, Response response) {
+            cacheHit = true;
+        }
+
+        @Override
+        public void cacheConditionalHit(Call call, Response cachedResponse) {
+            conditionalHit = true;
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            finish(call, false);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            finish(call, true);
+        }
+
+        private void finish(Call call, boolean failed) {
+            String key = call.request().method() + " "
+                    + ResilienceInterceptor.endpointOf(call.request().url());
+            EndpointStats stats = statsFor(key);
+            if (dnsStart > 0) {
+                stats.getHistogram(Phase.DNS).record(dnsMs);
+            }
+            if (connectStart > 0) {
+                stats.getHistogram(Phase.CONNECT).record(connectMs);
+            }
+            if (secureConnectStart > 0) {
+                stats.getHistogram(Phase.TLS).record(tlsMs);
+            }
+            if (ttfbMs >= 0) {
+                stats.getHistogram(Phase.TTFB).record(ttfbMs);
+            }
+            if (bodyMs >= 0) {
+                stats.getHistogram(Phase.BODY).record(bodyMs);
+            }
+            stats.getHistogram(Phase.TOTAL).record(elapsedMs(callStart));
+            stats.record(this, failed);
+        }
+
+        private long elapsedMs(long startNanos) {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.noteapp.android.api;
+
+import android.util.Log;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded worker pool for blocking API calls.
+ *
+ * Tasks are queued by {@link Priority} so that user-initiated writes (save, delete)
+ * are picked up before foreground reads, and foreground reads before background
+ * refreshes such as the subscription status. Within a lane tasks run in FIFO order.
+ */
+public class RequestDispatcher {
+    private static final String TAG = "RequestDispatcher";
+    private static final int POOL_SIZE = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final long SLOW_WAIT_MS = 500;
+
+    public enum Priority {
+        USER_WRITE,
+        USER_READ,
+        BACKGROUND
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+
+    // Saturation counters
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final AtomicLong totalWaitMs = new AtomicLong();
+    private final AtomicLong maxWaitMs = new AtomicLong();
+
+    public RequestDispatcher() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "api-" + count.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        };
+
+        // With an unbounded queue the pool never grows past its core size,
+        // so core == max and idle threads are allowed to time out.
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public void execute(Priority priority, Runnable runnable) {
+        int depth = queueDepth.incrementAndGet();
+        updateMax(maxQueueDepth, depth);
+        executor.execute(new PrioritizedTask(priority, sequence.getAndIncrement(), runnable));
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getCompletedTasks() {
+        return completedTasks.get();
+    }
+
+    public long getAverageWaitMs() {
+        long completed = completedTasks.get();
+        return completed == 0 ? 0 : totalWaitMs.get() / completed;
+    }
+
+    public long getMaxWaitMs() {
+        return maxWaitMs.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RequestDispatcher{queued=" + getQueueDepth()
+                + ", maxQueued=" + getMaxQueueDepth()
+                + ", active=" + getActiveCount()
+                + ", completed=" + getCompletedTasks()
+                + ", avgWaitMs=" + getAverageWaitMs()
+                + ", maxWaitMs=" + getMaxWaitMs() + "}";
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    private class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Priority priority;
+        private final long seq;
+        private final Runnable runnable;
+        private final long enqueuedAt = System.nanoTime();
+
+        PrioritizedTask(Priority priority, long seq, Runnable runnable) {
+            this.priority = priority;
+            this.seq = seq;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            queueDepth.decrementAndGet();
+            long waitMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueuedAt);
+            totalWaitMs.addAndGet(waitMs);
+            updateMax(maxWaitMs, waitMs);
+            if (waitMs > SLOW_WAIT_MS) {
+                Log.w(TAG, priority + " task waited " + waitMs + "ms: " + RequestDispatcher.this);
+            }
+            try {
+                runnable.run();
+            } finally {
+                completedTasks.incrementAndGet();
+            }
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(seq, other.seq);
+        }
+    }
+}
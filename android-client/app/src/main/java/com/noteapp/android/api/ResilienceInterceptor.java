@@ -0,0 +1,177 @@
+package com.noteapp.android.api;
+
+import android.util.Log;
+
+import com.noteapp.android.Config;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Retries transient failures with exponential backoff and full jitter, and fails fast
+ * through a per-endpoint {@link CircuitBreaker} while the backend is clearly down
+ * (e.g. during a cold start on Render).
+ *
+ * Only idempotent requests are retried: GET, HEAD, PUT and DELETE, plus POST/PATCH
+ * requests that carry an {@value #IDEMPOTENCY_KEY} header the server deduplicates on.
+ */
+public class ResilienceInterceptor implements Interceptor {
+    private static final String TAG = "ResilienceInterceptor";
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    static final int MAX_ATTEMPTS = 4;
+    static final long BASE_DELAY_MS = 500;
+    static final long MAX_DELAY_MS = 8000;
+    // Numbers, UUIDs and hashes: anything that names one resource rather than a route
+    private static final String BACKEND_HOST = HttpUrl.get(Config.BASE_URL).host();
+    private static final Pattern ID_SEGMENT = Pattern.compile(
+            "\\d+|[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}|[0-9a-fA-F]{16,}");
+
+    private final Map<String, CircuitBreaker> breakers = new HashMap<>();
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String endpoint = endpointOf(request.url());
+        CircuitBreaker breaker = breakerFor(endpoint);
+        boolean retryable = isRetryable(request);
+
+        IOException lastError = null;
+        for (int attempt = 1; ; attempt++) {
+            if (!breaker.allowRequest()) {
+                throw new CircuitOpenException(endpoint, breaker.getRemainingOpenMs());
+            }
+
+            long retryAfterMs = -1;
+            boolean judged = false;
+            try {
+                Response response = chain.proceed(request);
+                judged = true;
+                if (!isTransient(response.code())) {
+                    breaker.onSuccess();
+                    return response;
+                }
+                breaker.onFailure();
+                if (!retryable || attempt >= MAX_ATTEMPTS) {
+                    return response;
+                }
+                retryAfterMs = parseRetryAfter(response.header("Retry-After"));
+                response.close();
+                Log.w(TAG, endpoint + " returned " + response.code() + ", attempt " + attempt);
+            } catch (CircuitOpenException e) {
+                throw e;
+            } catch (IOException e) {
+                if (chain.call().isCanceled()) {
+                    throw e;
+                }
+                judged = true;
+                breaker.onFailure();
+                lastError = e;
+                if (!retryable || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                Log.w(TAG, endpoint + " failed: " + e.getMessage() + ", attempt " + attempt);
+            } finally {
+                if (!judged) {
+                    // Cancelled or a RuntimeException; a half-open trial must not stay claimed
+                    breaker.onAbandoned();
+                }
+            }
+
+            sleep(retryAfterMs >= 0 ? Math.min(retryAfterMs, MAX_DELAY_MS) : backoffDelay(attempt), lastError);
+        }
+    }
+
+    public synchronized CircuitBreaker.State getState(String endpoint) {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        return breaker != null ? breaker.getState() : CircuitBreaker.State.CLOSED;
+    }
+
+    private synchronized CircuitBreaker breakerFor(String endpoint) {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        if (breaker == null) {
+            breaker = new CircuitBreaker();
+            breakers.put(endpoint, breaker);
+        }
+        return breaker;
+    }
+
+    // Path with ids collapsed so each route gets one key, e.g. /api/notes/42 -> /api/notes/:id
+    // and /api/uploads/<uuid>/chunks/3 -> /api/uploads/:id/chunks/:id
+    // Any other host, e.g. storage download URLs, is a single endpoint named after the host
+    static String endpointOf(HttpUrl url) {
+        if (!BACKEND_HOST.equals(url.host())) {
+            return url.host();
+        }
+        StringBuilder path = new StringBuilder();
+        for (String segment : url.pathSegments()) {
+            path.append('/');
+            path.append(ID_SEGMENT.matcher(segment).matches() ? ":id" : segment);
+        }
+        return path.toString();
+    }
+
+    private static boolean isRetryable(Request request) {
+        switch (request.method()) {
+            case "GET":
+            case "HEAD":
+            case "PUT":
+            case "DELETE":
+                return true;
+            default:
+                return request.header(IDEMPOTENCY_KEY) != null;
+        }
+    }
+
+    // Gateway errors and throttling are what a sleeping or overloaded backend returns
+    private static boolean isTransient(int code) {
+        return code == 408 || code == 429 || code == 502 || code == 503 || code == 504;
+    }
+
+    // Full jitter: uniform in [0, min(cap, base * 2^(attempt-1))]
+    private static long backoffDelay(int attempt) {
+        long ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << (attempt - 1));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static long parseRetryAfter(String header) {
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(header.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void sleep(long delayMs, IOException cause) throws IOException {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Retry interrupted");
+            if (cause != null) {
+                interrupted.addSuppressed(cause);
+            }
+            throw interrupted;
+        }
+    }
+
+    public static class CircuitOpenException extends IOException {
+        CircuitOpenException(String endpoint, long retryInMs) {
+            super("Server unavailable, not retrying " + endpoint + " for "
+                    + TimeUnit.MILLISECONDS.toSeconds(retryInMs + 999) + "s");
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.noteapp.android.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces identical concurrent requests so they share one network call.
+ *
+ * The first caller for a key becomes the leader and receives a fan-out callback to
+ * hand to the real request; callers arriving while it is in flight are attached to
+ * that callback instead of issuing their own request.
+ */
+class SingleFlight {
+    private final Map<String, Object> flights = new HashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Returns the callback the leader should run the request with, or null if the
+     * caller was attached to a request that is already in flight.
+     */
+    @SuppressWarnings("unchecked")
+    <T> ApiService.ApiCallback<T> join(String key, ApiService.ApiCallback<T> callback) {
+        synchronized (flights) {
+            CallbackFlight<T> flight = (CallbackFlight<T>) flights.get(key);
+            if (flight != null) {
+                flight.add(callback);
+                coalesced.incrementAndGet();
+                return null;
+            }
+            flight = new CallbackFlight<>(key);
+            flight.add(callback);
+            flights.put(key, flight);
+            return flight;
+        }
+    }
+
+    long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    private void remove(String key) {
+        synchronized (flights) {
+            flights.remove(key);
+        }
+    }
+
+    private class CallbackFlight<T> implements ApiService.ApiCallback<T> {
+        private final String key;
+        private final List<ApiService.ApiCallback<T>> callbacks = new ArrayList<>();
+
+        CallbackFlight(String key) {
+            this.key = key;
+        }
+
+        synchronized void add(ApiService.ApiCallback<T> callback) {
+            callbacks.add(callback);
+        }
+
+        // Detach from the map first so later callers start a fresh request
+        private List<ApiService.ApiCallback<T>> finish() {
+            remove(key);
+            synchronized (this) {
+                return new ArrayList<>(callbacks);
+            }
+        }
+
+        @Override
+        public void onSuccess(T result) {
+            for (ApiService.ApiCallback<T> callback : finish()) {
+                callback.onSuccess(result);
+            }
+        }
+
+        @Override
+        public void onError(String error) {
+            for (ApiService.ApiCallback<T> callback : finish()) {
+                callback.onError(error);
+            }
+        }
+    }
+}
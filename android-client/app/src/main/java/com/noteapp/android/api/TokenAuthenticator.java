@@ -0,0 +1,38 @@
+package com.noteapp.android.api;
+
+import okhttp3.Authenticator;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+
+/**
+ * Retries a request exactly once with a freshly minted token when the server answers 401.
+ */
+public class TokenAuthenticator implements Authenticator {
+    private static final String BEARER = "Bearer ";
+
+    private final AuthTokenProvider tokenProvider;
+
+    public TokenAuthenticator(AuthTokenProvider tokenProvider) {
+        this.tokenProvider = tokenProvider;
+    }
+
+    @Override
+    public Request authenticate(Route route, Response response) {
+        if (response.priorResponse() != null) {
+            return null; // Already retried once, give up
+        }
+
+        String header = response.request().header("Authorization");
+        String rejectedToken = header != null && header.startsWith(BEARER)
+                ? header.substring(BEARER.length()) : null;
+
+        String token = tokenProvider.refreshToken(rejectedToken);
+        if (token == null || token.equals(rejectedToken)) {
+            return null;
+        }
+        return response.request().newBuilder()
+                .header("Authorization", BEARER + token)
+                .build();
+    }
+}
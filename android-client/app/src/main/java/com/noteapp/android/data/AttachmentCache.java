@@ -0,0 +1,120 @@
+package com.noteapp.android.data;
+
+import android.util.Log;
+
+import com.noteapp.android.api.ApiService;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Size-bounded disk cache of downloaded attachments, so opening the same file again
+ * doesn't download it again. Files are keyed by URL and evicted least recently used
+ * first (by last-modified time, which is bumped on every hit) once the directory
+ * grows past its budget. Image thumbnails are cached separately by Glide. Disk work
+ * runs on its own thread; callbacks arrive on worker threads.
+ */
+public class AttachmentCache {
+    private static final String TAG = "AttachmentCache";
+    // ApiService.downloadFile writes here first, then renames into place
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private final File directory;
+    private final long maxBytes;
+    private final ApiService apiService;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "attachment-cache"));
+
+    public AttachmentCache(File directory, long maxBytes, ApiService apiService) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.apiService = apiService;
+    }
+
+    // Returns the local copy of url, downloading it first if it isn't cached
+    public void get(String url, String fileName, ApiService.ApiCallback<File> callback) {
+        executor.execute(() -> lookup(url, fileName, callback));
+    }
+
+    private void lookup(String url, String fileName, ApiService.ApiCallback<File> callback) {
+        File file = new File(directory, keyFor(url) + extensionOf(fileName));
+        if (file.isFile()) {
+            file.setLastModified(System.currentTimeMillis());
+            callback.onSuccess(file);
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            callback.onError("Cannot create " + directory);
+            return;
+        }
+        apiService.downloadFile(url, file, new ApiService.ApiCallback<File>() {
+            @Override
+            public void onSuccess(File result) {
+                executor.execute(() -> trim(result));
+                callback.onSuccess(result);
+            }
+
+            @Override
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        });
+    }
+
+    // Evict least recently used files until the cache fits its budget, never evicting keep.
+    // Downloads still in progress are neither counted nor evicted
+    private void trim(File keep) {
+        File[] files = directory.listFiles(file -> !file.getName().endsWith(PARTIAL_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (file.equals(keep)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            } else {
+                Log.w(TAG, "Failed to evict " + file);
+            }
+        }
+    }
+
+    // Keep the extension so viewers can tell the file type
+    private static String extensionOf(String fileName) {
+        int dot = fileName != null ? fileName.lastIndexOf('.') : -1;
+        String extension = dot >= 0 ? fileName.substring(dot) : "";
+        return extension.matches("\\.[A-Za-z0-9]{1,10}") ? extension : "";
+    }
+
+    private static String keyFor(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.noteapp.android.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import com.noteapp.android.api.ApiService;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Copies picked content URIs into the {@link StagingArea} on a background thread.
+ *
+ * When the provider hands back a regular file, the copy is a FileChannel transfer
+ * (sendfile on Android), so the bytes never pass through the Java heap. Providers
+ * that stream through a pipe fall back to a large direct buffer. Progress is
+ * reported after every slice, and the copy stops early if its Future is cancelled.
+ * With an {@link ImageTranscoder}, staged photos are then shrunk in place.
+ * Callbacks run on the import thread.
+ */
+public class AttachmentImporter {
+    private static final String TAG = "AttachmentImporter";
+
+    // Bytes copied between progress reports and cancellation checks
+    private static final long SLICE_BYTES = 8L * 1024 * 1024;
+    private static final int STREAM_BUFFER_BYTES = 256 * 1024;
+
+    private final ContentResolver resolver;
+    private final StagingArea staging;
+    // Null when images are uploaded as picked
+    private final ImageTranscoder transcoder;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "attachment-import"));
+
+    public interface ProgressListener {
+        void onProgress(long bytesCopied, long totalBytes);
+    }
+
+    // A staged file ready for upload, and how big it was before transcoding
+    public static final class ImportedFile {
+        private final File file;
+        private final long originalBytes;
+
+        ImportedFile(File file, long originalBytes) {
+            this.file = file;
+            this.originalBytes = originalBytes;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getOriginalBytes() {
+            return originalBytes;
+        }
+
+        // Transcoded files are only kept when they came out smaller
+        public boolean isTranscoded() {
+            return file.length() != originalBytes;
+        }
+    }
+
+    public AttachmentImporter(ContentResolver resolver, StagingArea staging, ImageTranscoder transcoder) {
+        this.resolver = resolver;
+        this.staging = staging;
+        this.transcoder = transcoder;
+        // Drop whatever a previous process left over budget before the first import
+        executor.execute(staging::trim);
+    }
+
+    public StagingArea getStagingArea() {
+        return staging;
+    }
+
+    // Stage the content at uri; totalBytes is -1 in progress reports when the provider doesn't know the size
+    public Future<?> importUri(Uri uri, ProgressListener progress, ApiService.ApiCallback<ImportedFile> callback) {
+        return executor.submit(() -> {
+            long start = System.nanoTime();
+            File target = null;
+            try {
+                Metadata metadata = queryMetadata(uri);
+                target = staging.allocate(metadata.displayName, metadata.size);
+                long copied = copy(uri, target, metadata.size, progress);
+                Log.d(TAG, "Imported " + copied + " bytes in "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms");
+                target = transcodeIfImage(target);
+                callback.onSuccess(new ImportedFile(target, copied));
+            } catch (InterruptedIOException | ClosedByInterruptException e) {
+                // Cancelled; nobody is waiting for the result
+                staging.release(target);
+            } catch (IOException | SecurityException e) {
+                Log.e(TAG, "Import failed for " + uri, e);
+                staging.release(target);
+                callback.onError(e.getMessage());
+            }
+        });
+    }
+
+    private File transcodeIfImage(File staged) throws IOException {
+        if (transcoder == null || !ImageTranscoder.canTranscode(ApiService.guessMimeType(staged.getName()))) {
+            return staged;
+        }
+        checkCancelled();
+        long start = System.nanoTime();
+        try {
+            File result = transcoder.transcode(staged);
+            Log.d(TAG, "Transcoded in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            return result;
+        } catch (IOException | OutOfMemoryError e) {
+            if (!staged.isFile()) {
+                throw new IOException("Transcoding lost " + staged.getName(), e);
+            }
+            // Still have the original; send that instead
+            Log.w(TAG, "Transcoding failed, keeping original " + staged.getName(), e);
+            return staged;
+        }
+    }
+
+    private long copy(Uri uri, File target, long expectedSize, ProgressListener progress) throws IOException {
+        ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        try (ParcelFileDescriptor.AutoCloseInputStream input = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+             FileOutputStream output = new FileOutputStream(target)) {
+            FileChannel out = output.getChannel();
+            // -1 for pipes and sockets, which can't be transferred from by position
+            long fileSize = descriptor.getStatSize();
+            if (fileSize >= 0) {
+                return transferFile(input.getChannel(), out, fileSize, progress);
+            }
+            return transferStream(input, out, expectedSize, progress);
+        }
+    }
+
+    private static long transferFile(FileChannel in, FileChannel out, long size,
+                                     ProgressListener progress) throws IOException {
+        long position = 0;
+        while (position < size) {
+            checkCancelled();
+            long moved = in.transferTo(position, Math.min(SLICE_BYTES, size - position), out);
+            if (moved <= 0) {
+                break; // File shrank underneath us
+            }
+            position += moved;
+            progress.onProgress(position, size);
+        }
+        return position;
+    }
+
+    private static long transferStream(InputStream input, FileChannel out, long expectedSize,
+                                       ProgressListener progress) throws IOException {
+        ReadableByteChannel in = Channels.newChannel(input);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(STREAM_BUFFER_BYTES);
+        long position = 0;
+        long nextReport = SLICE_BYTES;
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer);
+            }
+            buffer.clear();
+            if (position >= nextReport) {
+                checkCancelled();
+                progress.onProgress(position, expectedSize);
+                nextReport = position + SLICE_BYTES;
+            }
+        }
+        progress.onProgress(position, expectedSize > 0 ? Math.max(expectedSize, position) : position);
+        return position;
+    }
+
+    private static void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Import cancelled");
+        }
+    }
+
+    private Metadata queryMetadata(Uri uri) {
+        String displayName = null;
+        long size = -1;
+        if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            try (Cursor cursor = resolver.query(uri, null, null, null, null)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                    if (nameIndex != -1) {
+                        displayName = cursor.getString(nameIndex);
+                    }
+                    int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                    if (sizeIndex != -1 && !cursor.isNull(sizeIndex)) {
+                        size = cursor.getLong(sizeIndex);
+                    }
+                }
+            }
+        }
+        if (displayName == null) {
+            displayName = uri.getLastPathSegment();
+        }
+        return new Metadata(displayName, size);
+    }
+
+    private static final class Metadata {
+        final String displayName;
+        final long size;
+
+        Metadata(String displayName, long size) {
+            this.displayName = displayName;
+            this.size = size;
+        }
+    }
+}
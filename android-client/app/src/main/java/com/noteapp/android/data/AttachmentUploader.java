@@ -0,0 +1,398 @@
+package com.noteapp.android.data;
+
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.noteapp.android.api.ApiService;
+import com.noteapp.android.models.Attachment;
+import com.noteapp.android.models.Note;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Uploads a note's new attachments in the background while, and after, its text is
+ * saved, so a save never waits for a transfer and the editor can close right away.
+ *
+ * All files upload concurrently as soon as the save starts. A finished upload is
+ * PATCHed onto its note once the note exists on the server with nothing left to
+ * send, one PATCH per note at a time because the server appends to the list by
+ * read-then-write. Jobs are recorded in the {@link UploadQueue} and resume when the
+ * app starts again. Transient failures (e.g. offline) are kept and tried again by
+ * {@link #retry()}; permanent ones are reported to the {@link FailureListener}.
+ * Files are moved out of the {@link StagingArea} into the uploader's own directory
+ * when they are handed over, so a later import can't evict them mid-upload. Job
+ * state is only touched on the uploader's thread.
+ */
+public class AttachmentUploader implements NoteRepository.NoteChangeListener {
+    private static final String TAG = "AttachmentUploader";
+    // Job.noteId until the save reports which note the files belong to
+    private static final int UNASSIGNED = 0;
+    private static final Pattern STATUS = Pattern.compile("^Error (\\d{3})\\b");
+
+    public interface FailureListener {
+        // fileName will never be attached; called on the uploader's thread
+        void onAttachmentFailed(String fileName, String error);
+    }
+
+    private final ApiService apiService;
+    private final NoteRepository noteRepository;
+    private final StagingArea staging;
+    private final UploadQueue queue;
+    // Files owned by pending jobs, one entry directory each like the staging area's
+    private final File directory;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "attachment-upload"));
+    private final Set<Job> jobs = new LinkedHashSet<>();
+    // Uploaded jobs waiting for their note's PATCH slot, by note id
+    private final Map<Integer, ArrayDeque<Job>> patchQueues = new HashMap<>();
+    private final Set<Integer> patching = new HashSet<>();
+    private final FailureListener failureListener;
+
+    private static class Job {
+        final long id;
+        final File file;
+        // The first file of a save becomes the note's fileUrl/fileName
+        final boolean primary;
+        int noteId = UNASSIGNED;
+        // The note is on the server with nothing queued, so the file can be attached
+        boolean synced;
+        boolean uploading;
+        Attachment uploaded;
+
+        Job(long id, File file, boolean primary) {
+            this.id = id;
+            this.file = file;
+            this.primary = primary;
+        }
+    }
+
+    public AttachmentUploader(ApiService apiService, NoteRepository noteRepository, StagingArea staging,
+                              UploadQueue queue, File directory, FailureListener failureListener) {
+        this.apiService = apiService;
+        this.noteRepository = noteRepository;
+        this.staging = staging;
+        this.queue = queue;
+        this.directory = directory;
+        this.failureListener = failureListener;
+        noteRepository.addChangeListener(this);
+        executor.execute(this::resume);
+    }
+
+    /**
+     * Starts uploading the staged files now and returns the listener to pass to
+     * NoteRepository.createNote/updateNote, which ties them to the note being saved.
+     * The uploader owns the files from here on.
+     */
+    public NoteRepository.StoredListener uploadFor(List<File> files) {
+        List<File> handed = new ArrayList<>(files);
+        // Only touched on the uploader's thread, like the jobs themselves
+        List<Job> started = new ArrayList<>();
+        executor.execute(() -> {
+            for (File staged : handed) {
+                File file = takeOwnership(staged);
+                boolean primary = started.isEmpty();
+                Job job = new Job(queue.add(file, primary), file, primary);
+                jobs.add(job);
+                started.add(job);
+                upload(job);
+            }
+        });
+        return note -> {
+            int noteId = note.getId();
+            executor.execute(() -> {
+                for (Job job : started) {
+                    if (jobs.contains(job)) {
+                        job.noteId = noteId;
+                        queue.setNoteId(job.id, noteId);
+                    }
+                }
+                // Just queued for sending; attached once onNoteChanged reports it synced
+            });
+        };
+    }
+
+    // Try again whatever failed transiently, e.g. when the network comes back
+    public void retry() {
+        executor.execute(() -> {
+            for (Job job : jobs) {
+                if (job.uploaded == null && !job.uploading) {
+                    upload(job);
+                } else if (job.uploaded != null && job.noteId > 0) {
+                    // The repository turns it away again if the note still has queued edits
+                    job.synced = true;
+                    queuePatch(job);
+                }
+            }
+            for (int noteId : new ArrayList<>(patchQueues.keySet())) {
+                patchNext(noteId);
+            }
+        });
+    }
+
+    // Forget every job and its file, e.g. on sign-out
+    public void clear() {
+        executor.execute(() -> {
+            for (Job job : new ArrayList<>(jobs)) {
+                finish(job);
+            }
+            patchQueues.clear();
+            queue.clear();
+        });
+    }
+
+    @Override
+    public void onNoteChanged(int previousId, Note note) {
+        int noteId = note.getId();
+        boolean synced = noteId > 0 && !note.isPending();
+        executor.execute(() -> {
+            if (previousId != noteId) {
+                queue.remapNote(previousId, noteId);
+            }
+            for (Job job : jobs) {
+                if (job.noteId != previousId || job.noteId == UNASSIGNED) {
+                    continue;
+                }
+                job.noteId = noteId;
+                job.synced = synced;
+                if (synced && job.uploaded != null) {
+                    queuePatch(job);
+                }
+            }
+            if (synced) {
+                patchNext(noteId);
+            }
+        });
+    }
+
+    @Override
+    public void onNoteRemoved(int noteId) {
+        executor.execute(() -> {
+            for (Job job : new ArrayList<>(jobs)) {
+                if (job.noteId == noteId) {
+                    Log.w(TAG, "Note " + noteId + " was deleted, dropping " + job.file.getName());
+                    finish(job);
+                }
+            }
+            patchQueues.remove(noteId);
+        });
+    }
+
+    // Picks up the jobs a previous process left behind
+    private void resume() {
+        Set<File> owned = new HashSet<>();
+        for (UploadQueue.Entry entry : queue.getAll()) {
+            Job job = new Job(entry.id, entry.file, entry.primary);
+            job.noteId = entry.noteId;
+            job.uploaded = entry.uploaded;
+            jobs.add(job);
+            owned.add(entry.file.getParentFile());
+            if (job.noteId == UNASSIGNED) {
+                // The process died before the save reached the repository
+                fail(job, "the note was not saved");
+            } else if (job.uploaded == null) {
+                upload(job);
+            } else if (job.noteId > 0) {
+                job.synced = true;
+                queuePatch(job);
+            }
+            // Jobs of notes that only have a local id wait for the outbox to create them
+        }
+        for (int noteId : new ArrayList<>(patchQueues.keySet())) {
+            patchNext(noteId);
+        }
+
+        // Entries with no job were moved here just before the process died
+        File[] entries = directory.listFiles();
+        if (entries != null) {
+            for (File entry : entries) {
+                if (!owned.contains(entry)) {
+                    deleteEntry(entry);
+                }
+            }
+        }
+    }
+
+    private void upload(Job job) {
+        if (!job.file.isFile()) {
+            fail(job, "the file is missing");
+            return;
+        }
+        job.uploading = true;
+        apiService.uploadFile(job.file, new ApiService.ApiCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                executor.execute(() -> uploaded(job, result));
+            }
+
+            @Override
+            public void onError(String error) {
+                executor.execute(() -> {
+                    job.uploading = false;
+                    if (!jobs.contains(job)) {
+                        return; // Dropped while uploading
+                    }
+                    if (isPermanent(error)) {
+                        fail(job, error);
+                    } else {
+                        Log.w(TAG, "Upload of " + job.file.getName() + " failed, will retry: " + error);
+                    }
+                });
+            }
+        });
+    }
+
+    private void uploaded(Job job, String result) {
+        job.uploading = false;
+        if (!jobs.contains(job)) {
+            return; // Dropped while uploading
+        }
+        try {
+            JsonObject json = JsonParser.parseString(result).getAsJsonObject();
+            job.uploaded = new Attachment(json.get("fileName").getAsString(),
+                    json.get("fileUrl").getAsString(),
+                    json.has("filePath") ? json.get("filePath").getAsString() : null,
+                    job.file.length(), ApiService.guessMimeType(job.file.getName()));
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Bad upload response for " + job.file.getName() + ": " + result, e);
+            fail(job, "unexpected response from the server");
+            return;
+        }
+        queue.setUploaded(job.id, job.uploaded);
+        if (job.synced) {
+            queuePatch(job);
+            patchNext(job.noteId);
+        }
+    }
+
+    private void queuePatch(Job job) {
+        ArrayDeque<Job> pending = patchQueues.get(job.noteId);
+        if (pending == null) {
+            pending = new ArrayDeque<>();
+            patchQueues.put(job.noteId, pending);
+        }
+        if (!pending.contains(job)) {
+            pending.add(job);
+        }
+    }
+
+    // Sends the note's next queued PATCH unless one is already on the wire
+    private void patchNext(int noteId) {
+        ArrayDeque<Job> pending = patchQueues.get(noteId);
+        if (pending == null || pending.isEmpty() || patching.contains(noteId)) {
+            return;
+        }
+        Job job = pending.peek();
+        patching.add(noteId);
+        noteRepository.addAttachment(noteId, job.uploaded, job.primary, new ApiService.ApiCallback<Note>() {
+            @Override
+            public void onSuccess(Note result) {
+                executor.execute(() -> {
+                    patching.remove(noteId);
+                    removeQueued(noteId, job);
+                    finish(job);
+                    patchNext(noteId);
+                });
+            }
+
+            @Override
+            public void onError(String error) {
+                executor.execute(() -> {
+                    patching.remove(noteId);
+                    if (NoteRepository.NOT_SYNCED.equals(error)) {
+                        // Queued edits go first; the next sync of this note sends it again
+                        job.synced = false;
+                        removeQueued(noteId, job);
+                        return;
+                    }
+                    if (statusOf(error) == 404) {
+                        Log.w(TAG, "Note " + noteId + " was deleted, dropping " + job.file.getName());
+                        removeQueued(noteId, job);
+                        finish(job);
+                    } else if (isPermanent(error)) {
+                        removeQueued(noteId, job);
+                        fail(job, error);
+                    } else {
+                        Log.w(TAG, "Attaching " + job.file.getName() + " failed, will retry: " + error);
+                        return;
+                    }
+                    patchNext(noteId);
+                });
+            }
+        });
+    }
+
+    private void removeQueued(int noteId, Job job) {
+        ArrayDeque<Job> pending = patchQueues.get(noteId);
+        if (pending != null) {
+            pending.remove(job);
+            if (pending.isEmpty()) {
+                patchQueues.remove(noteId);
+            }
+        }
+    }
+
+    // Gives up on the job and tells the user
+    private void fail(Job job, String error) {
+        Log.e(TAG, "Giving up on " + job.file.getName() + ": " + error);
+        finish(job);
+        failureListener.onAttachmentFailed(job.file.getName(), error);
+    }
+
+    private void finish(Job job) {
+        jobs.remove(job);
+        queue.remove(job.id);
+        File entry = job.file.getParentFile();
+        if (entry != null && directory.equals(entry.getParentFile())) {
+            deleteEntry(entry);
+        } else {
+            staging.release(job.file);
+        }
+    }
+
+    private File takeOwnership(File staged) {
+        try {
+            return staging.moveOut(staged, directory);
+        } catch (IOException e) {
+            Log.w(TAG, "Uploading " + staged.getName() + " from the staging area", e);
+            return staged;
+        }
+    }
+
+    private static void deleteEntry(File entry) {
+        File[] files = entry.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        if (!entry.delete()) {
+            Log.w(TAG, "Failed to delete " + entry);
+        }
+    }
+
+    // HTTP status of an ApiService error such as "Error 413: ...", or 0 if the request never got an answer
+    private static int statusOf(String error) {
+        Matcher matcher = STATUS.matcher(error != null ? error : "");
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+
+    // Client errors won't go away by sending the same thing again
+    private static boolean isPermanent(String error) {
+        int status = statusOf(error);
+        return status >= 400 && status < 500 && status != 408 && status != 429;
+    }
+}
@@ -0,0 +1,400 @@
+package com.noteapp.android.data;
+
+import android.util.Log;
+
+import com.noteapp.android.api.ApiService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe copy of what is being typed in the editor, one journal file per note.
+ *
+ * Each record holds the title and only the changed range of the content since the
+ * previous record, so a burst of typing costs about as much as what was typed, not
+ * the size of the note. Records are length-prefixed and CRC-checked; a torn record
+ * at the end (the process died mid-write) is dropped on load. Writes are fsynced
+ * at most once per sync interval, and the journal is rewritten as a single snapshot
+ * once it has grown to twice the size of the last one. Everything runs on one
+ * background thread; callbacks run there too.
+ */
+public class DraftJournal {
+    private static final String TAG = "DraftJournal";
+    // Journal key for a note that hasn't been saved yet; server ids are positive, local ones negative
+    public static final int NEW_NOTE = 0;
+
+    private static final byte SNAPSHOT = 0;
+    private static final byte SPLICE = 1;
+    // Header is payload length then CRC32 of the payload
+    private static final int HEADER_BYTES = 8;
+    // Small journals are never worth compacting
+    private static final long COMPACT_MIN_BYTES = 64 * 1024;
+
+    private final File directory;
+    private final long syncIntervalMs;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "draft-journal"));
+    // Journals read or written since they were last discarded; journal thread only
+    private final Map<Integer, Journal> journals = new HashMap<>();
+    private boolean syncScheduled;
+
+    public static final class Draft {
+        private final String title;
+        private final String content;
+
+        Draft(String title, String content) {
+            this.title = title;
+            this.content = content;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getContent() {
+            return content;
+        }
+    }
+
+    private static final class Journal {
+        final File file;
+        // Null until the journal has been opened for appending
+        FileChannel channel;
+        // Text as of the last record; null content means nothing journaled yet
+        String title;
+        String content;
+        long length;
+        long snapshotBytes;
+        boolean unsynced;
+        // Timings since the journal was opened, logged when it is discarded
+        int records;
+        long appendNanos;
+        long maxAppendNanos;
+        int syncs;
+        long syncNanos;
+
+        Journal(File file) {
+            this.file = file;
+        }
+    }
+
+    public DraftJournal(File directory, long syncIntervalMs) {
+        this.directory = directory;
+        this.syncIntervalMs = syncIntervalMs;
+    }
+
+    // The unsaved text journaled for noteId, or null if there is none
+    public void load(int noteId, ApiService.ApiCallback<Draft> callback) {
+        executor.execute(() -> {
+            Journal journal = journal(noteId);
+            callback.onSuccess(journal.content != null ? new Draft(journal.title, journal.content) : null);
+        });
+    }
+
+    // Journal the editor's current text; the fsync follows within the sync interval
+    public void record(int noteId, String title, String content) {
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            Journal journal = journal(noteId);
+            try {
+                if (journal.content == null) {
+                    appendSnapshot(journal, title, content);
+                } else if (!journal.content.equals(content) || !journal.title.equals(title)) {
+                    append(journal, splice(journal.content, title, content));
+                } else {
+                    return;
+                }
+                journal.title = title;
+                journal.content = content;
+                if (journal.length > Math.max(COMPACT_MIN_BYTES, 2 * journal.snapshotBytes)) {
+                    compact(journal);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not journal draft of note " + noteId, e);
+                close(journal);
+                journals.remove(noteId);
+                return;
+            }
+            long elapsed = System.nanoTime() - start;
+            journal.records++;
+            journal.appendNanos += elapsed;
+            journal.maxAppendNanos = Math.max(journal.maxAppendNanos, elapsed);
+            scheduleSync();
+        });
+    }
+
+    // fsync now, e.g. when the editor goes to the background
+    public void flush() {
+        executor.execute(this::syncAll);
+    }
+
+    // The draft was saved (or abandoned); forget it
+    public void discard(int noteId) {
+        executor.execute(() -> {
+            Journal journal = journals.remove(noteId);
+            if (journal == null) {
+                journal = new Journal(fileFor(noteId));
+            } else if (journal.records > 0) {
+                Log.d(TAG, "Draft of note " + noteId + ": " + journal.records + " records, avg "
+                        + journal.appendNanos / journal.records / 1000 + " µs, max "
+                        + journal.maxAppendNanos / 1000 + " µs; " + journal.syncs + " fsyncs, avg "
+                        + (journal.syncs > 0 ? journal.syncNanos / journal.syncs / 1000 : 0) + " µs");
+            }
+            close(journal);
+            if (journal.file.exists() && !journal.file.delete()) {
+                Log.w(TAG, "Failed to delete " + journal.file);
+            }
+        });
+    }
+
+    // Drop every draft, e.g. on sign-out
+    public void clear() {
+        executor.execute(() -> {
+            for (Journal journal : journals.values()) {
+                close(journal);
+            }
+            journals.clear();
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    private File fileFor(int noteId) {
+        return new File(directory, (noteId == NEW_NOTE ? "new" : "note-" + noteId) + ".journal");
+    }
+
+    // The journal for noteId, replaying its file the first time it is used
+    private Journal journal(int noteId) {
+        Journal journal = journals.get(noteId);
+        if (journal == null) {
+            journal = new Journal(fileFor(noteId));
+            if (journal.file.isFile()) {
+                replay(journal);
+            }
+            journals.put(noteId, journal);
+        }
+        return journal;
+    }
+
+    private static void replay(Journal journal) {
+        long fileLength = journal.file.length();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(journal.file))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > fileLength - journal.length - HEADER_BYTES) {
+                    break; // Torn length, or a record cut short
+                }
+                int crc = in.readInt();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (crc != crc(payload) || !apply(journal, payload)) {
+                    break;
+                }
+                journal.length += HEADER_BYTES + length;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Stopped reading " + journal.file.getName() + " at byte " + journal.length, e);
+        }
+        if (journal.length < fileLength) {
+            Log.w(TAG, "Dropping " + (fileLength - journal.length) + " torn bytes from " + journal.file.getName());
+        }
+        // Appends start by cutting the file back to journal.length
+    }
+
+    // Returns false for a record that doesn't fit the text before it
+    private static boolean apply(Journal journal, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte kind = in.readByte();
+        String title = readString(in);
+        if (kind == SNAPSHOT) {
+            journal.content = readString(in);
+            journal.snapshotBytes = HEADER_BYTES + payload.length;
+        } else if (kind == SPLICE && journal.content != null) {
+            int start = in.readInt();
+            int end = in.readInt();
+            String text = readString(in);
+            if (start < 0 || end < start || end > journal.content.length()) {
+                return false;
+            }
+            journal.content = journal.content.substring(0, start) + text + journal.content.substring(end);
+        } else {
+            return false;
+        }
+        journal.title = title;
+        return true;
+    }
+
+    // A record replacing everything between the common prefix and suffix of the two contents
+    private static byte[] splice(String previous, String title, String content) throws IOException {
+        int limit = Math.min(previous.length(), content.length());
+        int prefix = 0;
+        while (prefix < limit && previous.charAt(prefix) == content.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && previous.charAt(previous.length() - 1 - suffix) == content.charAt(content.length() - 1 - suffix)) {
+            suffix++;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(SPLICE);
+        writeString(out, title);
+        out.writeInt(prefix);
+        out.writeInt(previous.length() - suffix);
+        writeString(out, content.substring(prefix, content.length() - suffix));
+        return bytes.toByteArray();
+    }
+
+    private static byte[] snapshot(String title, String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(SNAPSHOT);
+        writeString(out, title);
+        writeString(out, content);
+        return bytes.toByteArray();
+    }
+
+    private void appendSnapshot(Journal journal, String title, String content) throws IOException {
+        byte[] payload = snapshot(title, content);
+        append(journal, payload);
+        journal.snapshotBytes = HEADER_BYTES + payload.length;
+    }
+
+    private void append(Journal journal, byte[] payload) throws IOException {
+        if (journal.channel == null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            journal.channel = new RandomAccessFile(journal.file, "rw").getChannel();
+            // Cut off anything torn that replay stopped at
+            journal.channel.truncate(journal.length);
+            journal.channel.position(journal.length);
+        }
+        ByteBuffer record = record(payload);
+        while (record.hasRemaining()) {
+            journal.channel.write(record);
+        }
+        journal.length += record.limit();
+        journal.unsynced = true;
+    }
+
+    // Rewrite the journal as one snapshot: temp file, fsync, then rename over the old one
+    private void compact(Journal journal) throws IOException {
+        long start = System.nanoTime();
+        long before = journal.length;
+        byte[] payload = snapshot(journal.title, journal.content);
+        File temp = new File(journal.file.getPath() + ".tmp");
+        try (FileChannel channel = new RandomAccessFile(temp, "rw").getChannel()) {
+            channel.truncate(0);
+            ByteBuffer record = record(payload);
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(false);
+        }
+        close(journal);
+        if (!temp.renameTo(journal.file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + journal.file.getName());
+        }
+        journal.length = HEADER_BYTES + payload.length;
+        journal.snapshotBytes = journal.length;
+        Log.d(TAG, "Compacted " + journal.file.getName() + " from " + before + " to " + journal.length
+                + " bytes in " + (System.nanoTime() - start) / 1000 + " µs");
+    }
+
+    private void scheduleSync() {
+        if (!syncScheduled) {
+            syncScheduled = true;
+            executor.schedule(this::syncAll, syncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // One fsync per journal that was written since the last one
+    private void syncAll() {
+        syncScheduled = false;
+        for (Journal journal : journals.values()) {
+            if (!journal.unsynced || journal.channel == null) {
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                journal.channel.force(false);
+                journal.unsynced = false;
+            } catch (IOException e) {
+                Log.w(TAG, "fsync of " + journal.file.getName() + " failed", e);
+            }
+            journal.syncs++;
+            journal.syncNanos += System.nanoTime() - start;
+        }
+    }
+
+    private static void close(Journal journal) {
+        if (journal.channel != null) {
+            try {
+                journal.channel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close " + journal.file.getName(), e);
+            }
+            journal.channel = null;
+        }
+    }
+
+    private static ByteBuffer record(byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        record.putInt(payload.length);
+        record.putInt(crc(payload));
+        record.put(payload);
+        record.flip();
+        return record;
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    // UTF-16 code units as they are, so a range can never split a character's encoding
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeInt(value.length());
+        out.writeChars(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available() / 2) {
+            throw new EOFException("Bad string length " + length);
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+}
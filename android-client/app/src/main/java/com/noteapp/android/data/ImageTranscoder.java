@@ -0,0 +1,159 @@
+package com.noteapp.android.data;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Shrinks picked photos and screenshots before upload. The image is decoded with
+ * the largest power-of-two sample size that stays above the maximum dimension,
+ * scaled the rest of the way, rotated upright from its EXIF orientation and
+ * re-encoded (WebP on API 30+, JPEG otherwise; WebP for images with transparency).
+ * Re-encoding drops all metadata, including location. Blocking; call it from a
+ * background thread.
+ */
+public class ImageTranscoder {
+    private static final String TAG = "ImageTranscoder";
+
+    private final int maxDimension;
+    private final int quality;
+
+    public ImageTranscoder(int maxDimension, int quality) {
+        this.maxDimension = maxDimension;
+        this.quality = quality;
+    }
+
+    // Types worth re-encoding; GIFs may be animated and SVG/HEIF decoding varies by device
+    public static boolean canTranscode(String mimeType) {
+        return "image/jpeg".equals(mimeType) || "image/png".equals(mimeType)
+                || "image/webp".equals(mimeType) || "image/bmp".equals(mimeType);
+    }
+
+    /**
+     * Re-encodes source next to itself and deletes the original. Returns the new
+     * file, or source unchanged if it can't be decoded or the result isn't smaller.
+     */
+    public File transcode(File source) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return source;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight);
+        Bitmap decoded = BitmapFactory.decodeFile(source.getPath(), options);
+        if (decoded == null) {
+            return source;
+        }
+        Bitmap bitmap = scaleAndOrient(decoded, readOrientation(source));
+
+        boolean webp = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R || bitmap.hasAlpha();
+        File target = new File(source.getParentFile(), baseName(source) + (webp ? ".webp" : ".jpg"));
+        File temp = new File(source.getPath() + ".transcode");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            if (!bitmap.compress(webp ? webpFormat() : Bitmap.CompressFormat.JPEG, quality, out)) {
+                throw new IOException("Could not encode " + source.getName());
+            }
+        } finally {
+            bitmap.recycle();
+        }
+
+        if (temp.length() >= source.length()) {
+            // Already small and well compressed; re-encoding would only cost quality
+            temp.delete();
+            return source;
+        }
+        Log.d(TAG, source.getName() + ": " + bounds.outWidth + "x" + bounds.outHeight + ", "
+                + source.length() + " -> " + temp.length() + " bytes");
+        if (!source.delete() || !temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Could not replace " + source.getName());
+        }
+        return target;
+    }
+
+    // Largest power of two that keeps the longer side at or above maxDimension
+    private int sampleSize(int width, int height) {
+        int longest = Math.max(width, height);
+        int sample = 1;
+        while (longest / (sample * 2) >= maxDimension) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    private Bitmap scaleAndOrient(Bitmap bitmap, int orientation) {
+        Matrix matrix = new Matrix();
+        int longest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longest > maxDimension) {
+            float scale = maxDimension / (float) longest;
+            matrix.postScale(scale, scale);
+        }
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(-90);
+                break;
+            default:
+                break;
+        }
+        if (matrix.isIdentity()) {
+            return bitmap;
+        }
+        Bitmap transformed = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (transformed != bitmap) {
+            bitmap.recycle();
+        }
+        return transformed;
+    }
+
+    private static int readOrientation(File file) {
+        try {
+            return new ExifInterface(file.getPath())
+                    .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat webpFormat() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
@@ -0,0 +1,137 @@
+package com.noteapp.android.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * On-device copy of the user's notes, used as the read path for the notes list.
+ */
+public class NoteDatabase extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "notes.db";
+    private static final int DATABASE_VERSION = 7;
+
+    static final String TABLE_NOTES = "notes";
+    static final String COLUMN_ID = "id";
+    static final String COLUMN_TITLE = "title";
+    static final String COLUMN_CONTENT = "content";
+    static final String COLUMN_USER_ID = "user_id";
+    static final String COLUMN_USER_EMAIL = "user_email";
+    static final String COLUMN_CREATED_AT = "created_at";
+    static final String COLUMN_FILE_URL = "file_url";
+    static final String COLUMN_FILE_NAME = "file_name";
+    static final String COLUMN_PREVIEW = "preview";
+
+    static final String TABLE_NOTES_FTS = "notes_fts";
+    static final String COLUMN_FTS_TITLE = "title";
+    static final String COLUMN_FTS_BODY = "body";
+
+    static final String TABLE_OUTBOX = "outbox";
+    static final String COLUMN_SEQ = "seq";
+    static final String COLUMN_OP = "op";
+    static final String COLUMN_NOTE_ID = "note_id";
+    static final String COLUMN_PAYLOAD = "payload";
+    static final String COLUMN_IDEMPOTENCY_KEY = "idempotency_key";
+    static final String COLUMN_IN_FLIGHT = "in_flight";
+    // Server copy of the content an update was queued against, for sending only the change
+    static final String COLUMN_BASE_CONTENT = "base_content";
+
+    static final String TABLE_UPLOADS = "uploads";
+    static final String COLUMN_UPLOAD_ID = "upload_id";
+    static final String COLUMN_FILE_PATH = "file_path";
+    static final String COLUMN_PRIMARY = "is_primary";
+    static final String COLUMN_ATTACHMENT = "attachment";
+
+    public NoteDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Readers (UI loads) don't block behind revalidation writes
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NOTES + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_TITLE + " TEXT, "
+                + COLUMN_CONTENT + " TEXT, "
+                + COLUMN_USER_ID + " TEXT NOT NULL, "
+                + COLUMN_USER_EMAIL + " TEXT, "
+                + COLUMN_CREATED_AT + " TEXT, "
+                + COLUMN_FILE_URL + " TEXT, "
+                + COLUMN_FILE_NAME + " TEXT, "
+                + COLUMN_PREVIEW + " TEXT)");
+        db.execSQL("CREATE INDEX idx_notes_user_created ON " + TABLE_NOTES
+                + " (" + COLUMN_USER_ID + ", " + COLUMN_CREATED_AT + " DESC)");
+        createOutbox(db);
+        createSearchIndex(db);
+        createUploads(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createOutbox(db);
+        }
+        if (oldVersion < 3) {
+            // Content is null for notes only known from list summaries
+            db.execSQL("ALTER TABLE " + TABLE_NOTES + " ADD COLUMN " + COLUMN_PREVIEW + " TEXT");
+        }
+        if (oldVersion < 4) {
+            createSearchIndex(db);
+            fillSearchIndex(db);
+        }
+        if (oldVersion >= 2 && oldVersion < 5) {
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN " + COLUMN_BASE_CONTENT + " TEXT");
+        }
+        if (oldVersion < 6) {
+            createUploads(db);
+        }
+        if (oldVersion >= 4 && oldVersion < 7) {
+            // Rebuilt with the unicode61 tokenizer
+            db.execSQL("DROP TABLE " + TABLE_NOTES_FTS);
+            createSearchIndex(db);
+            fillSearchIndex(db);
+        }
+    }
+
+    // Full-text index over notes, docid = note id; see NoteSearchIndex.
+    // Prefix indexes keep search-as-you-type queries like "meet*" fast. unicode61 folds
+    // case and diacritics across Unicode, where the default simple tokenizer only folds ASCII.
+    private static void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_NOTES_FTS + " USING fts4("
+                + COLUMN_FTS_TITLE + ", " + COLUMN_FTS_BODY + ", prefix=\"2,3,4\", tokenize=unicode61)");
+    }
+
+    private static void fillSearchIndex(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO " + TABLE_NOTES_FTS + " (docid, " + COLUMN_FTS_TITLE + ", " + COLUMN_FTS_BODY + ")"
+                + " SELECT " + COLUMN_ID + ", " + COLUMN_TITLE + ", COALESCE(" + COLUMN_CONTENT + ", " + COLUMN_PREVIEW + ")"
+                + " FROM " + TABLE_NOTES);
+    }
+
+    // Attachments still to be uploaded and/or attached to their note; see UploadQueue
+    private static void createUploads(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_UPLOADS + " ("
+                + COLUMN_UPLOAD_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_FILE_PATH + " TEXT NOT NULL, "
+                + COLUMN_NOTE_ID + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_PRIMARY + " INTEGER NOT NULL, "
+                + COLUMN_ATTACHMENT + " TEXT)");
+    }
+
+    // Pending note mutations, replayed to the server in seq order
+    private static void createOutbox(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_OUTBOX + " ("
+                + COLUMN_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_OP + " TEXT NOT NULL, "
+                + COLUMN_NOTE_ID + " INTEGER NOT NULL, "
+                + COLUMN_PAYLOAD + " TEXT, "
+                + COLUMN_IDEMPOTENCY_KEY + " TEXT NOT NULL, "
+                + COLUMN_IN_FLIGHT + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_BASE_CONTENT + " TEXT)");
+    }
+}
@@ -0,0 +1,204 @@
+package com.noteapp.android.data;
+
+import com.noteapp.android.api.ApiService;
+import com.noteapp.android.models.Note;
+import com.noteapp.android.models.NotePage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Loads the notes list one page at a time as the user scrolls.
+ *
+ * Each page is shown from the {@link NoteStore} first and then revalidated against
+ * the matching server page; only the key range that page covers is reconciled, so
+ * the work per page stays the same however many notes the user has. If the server
+ * can't be reached, later pages come from the store alone until the next refresh.
+ * Local writes are spliced into what is already loaded as they happen, so a save
+ * or delete never needs a reload. Create one per list refresh with
+ * {@link NoteRepository#openPager} and {@link #close()} it when done.
+ */
+public class NotePager implements NoteRepository.NoteChangeListener {
+    private final NoteRepository repository;
+    private final ApiService apiService;
+    private final NoteStore store;
+    private final ExecutorService diskExecutor;
+    private final String userId;
+    private final int pageSize;
+    private final NoteRepository.NotesListener listener;
+
+    // Everything shown so far; disk thread only
+    private final List<Note> loaded = new ArrayList<>();
+    // Where the page being revalidated starts in loaded; disk thread only
+    private int pageStart;
+    private String serverCursor;
+    private boolean offline;
+    // Read from the UI thread to skip redundant requests while scrolling
+    private volatile boolean loading;
+    private volatile boolean endReached;
+
+    NotePager(NoteRepository repository, ApiService apiService, NoteStore store,
+              ExecutorService diskExecutor, String userId, int pageSize,
+              NoteRepository.NotesListener listener) {
+        this.repository = repository;
+        this.apiService = apiService;
+        this.store = store;
+        this.diskExecutor = diskExecutor;
+        this.userId = userId;
+        this.pageSize = pageSize;
+        this.listener = listener;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public boolean hasMore() {
+        return !endReached;
+    }
+
+    // No-op while a page is loading or after the last one
+    public void loadNextPage() {
+        if (loading || endReached) {
+            return;
+        }
+        if (userId == null) {
+            listener.onError("Not signed in");
+            return;
+        }
+        loading = true;
+        diskExecutor.execute(this::startPage);
+    }
+
+    // Stop receiving local writes
+    public void close() {
+        repository.removeChangeListener(this);
+    }
+
+    @Override
+    public void onNoteChanged(int previousId, Note note) {
+        int index = indexOf(previousId);
+        if (index >= 0) {
+            removeAt(index);
+        }
+        int position = insertionPoint(note);
+        // Past the last loaded row it belongs to a page that isn't loaded yet
+        boolean shown = position < loaded.size() || endReached;
+        if (shown) {
+            loaded.add(position, note);
+            if (position < pageStart) {
+                pageStart++;
+            }
+        }
+        if (shown || index >= 0) {
+            listener.onNotes(new ArrayList<>(loaded));
+        }
+    }
+
+    @Override
+    public void onNoteRemoved(int noteId) {
+        int index = indexOf(noteId);
+        if (index >= 0) {
+            removeAt(index);
+            listener.onNotes(new ArrayList<>(loaded));
+        }
+    }
+
+    private void startPage() {
+        Note upper = loaded.isEmpty() ? null : loaded.get(loaded.size() - 1);
+        pageStart = loaded.size();
+        List<Note> local = repository.markPending(store.getNotesPage(userId, upper, pageSize));
+        if (!local.isEmpty()) {
+            loaded.addAll(local);
+            listener.onNotes(new ArrayList<>(loaded));
+        }
+
+        if (offline) {
+            endReached = local.size() < pageSize;
+            loading = false;
+            listener.onLoadFinished();
+            return;
+        }
+
+        apiService.getNotesPage(serverCursor, pageSize, new ApiService.ApiCallback<NotePage>() {
+            @Override
+            public void onSuccess(NotePage page) {
+                diskExecutor.execute(() -> applyPage(page, upper, local.isEmpty()));
+            }
+
+            @Override
+            public void onError(String error) {
+                diskExecutor.execute(() -> {
+                    // Keep paging through what's on the device
+                    offline = true;
+                    endReached = local.size() < pageSize;
+                    loading = false;
+                    listener.onError(error);
+                });
+            }
+        });
+    }
+
+    private void applyPage(NotePage page, Note upper, boolean nothingShown) {
+        List<Note> serverNotes = page.getNotes();
+        // The last page owns everything below it, so notes deleted there are dropped too
+        Note lower = page.hasMore() && !serverNotes.isEmpty()
+                ? serverNotes.get(serverNotes.size() - 1) : null;
+        store.applyRange(userId, serverNotes, upper, lower, repository.pendingNoteIds());
+
+        List<Note> range = repository.markPending(store.getNotesInRange(userId, upper, lower));
+        List<Note> shown = new ArrayList<>(loaded.subList(pageStart, loaded.size()));
+        loaded.subList(pageStart, loaded.size()).clear();
+        loaded.addAll(range);
+
+        serverCursor = page.getNextCursor();
+        endReached = !page.hasMore();
+        loading = false;
+        if (nothingShown || !sameNotes(shown, range)) {
+            listener.onNotes(new ArrayList<>(loaded));
+        }
+        listener.onLoadFinished();
+    }
+
+    private int indexOf(int noteId) {
+        for (int i = 0; i < loaded.size(); i++) {
+            if (loaded.get(i).getId() == noteId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        loaded.remove(index);
+        if (index < pageStart) {
+            pageStart--;
+        }
+    }
+
+    // First position whose note sorts after this one: newest created_at first, then highest id
+    private int insertionPoint(Note note) {
+        String createdAt = note.getCreatedAt() != null ? note.getCreatedAt() : "";
+        for (int i = 0; i < loaded.size(); i++) {
+            Note other = loaded.get(i);
+            int order = createdAt.compareTo(other.getCreatedAt() != null ? other.getCreatedAt() : "");
+            if (order > 0 || (order == 0 && note.getId() > other.getId())) {
+                return i;
+            }
+        }
+        return loaded.size();
+    }
+
+    private static boolean sameNotes(List<Note> a, List<Note> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).hasSameContent(b.get(i)) || a.get(i).isPending() != b.get(i).isPending()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,542 @@
+package com.noteapp.android.data;
+
+import android.util.Log;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.noteapp.android.Config;
+import com.noteapp.android.api.ApiService;
+import com.noteapp.android.models.Attachment;
+import com.noteapp.android.models.Note;
+import com.noteapp.android.models.NoteOperation;
+import com.noteapp.android.models.NoteOperationResult;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single entry point for reading and changing notes.
+ *
+ * Reads are served page by page ({@link NotePager}) from the local {@link NoteStore}
+ * first and then revalidated against the server (stale-while-revalidate). Writes are applied to the store and
+ * queued in the {@link Outbox} straight away, then replayed to the server in
+ * batches; a write that can't be sent yet still succeeds, with the returned note
+ * marked pending. Open pagers see every write as soon as it is stored, then again
+ * with the server's id and timestamps, or rolled back if the server rejects it.
+ * Callbacks run on background threads, like {@link ApiService}'s.
+ */
+public class NoteRepository {
+    private static final String TAG = "NoteRepository";
+    // Error from addAttachment for a note whose changes haven't reached the server yet
+    public static final String NOT_SYNCED = "Note has unsent changes";
+
+    public interface NotesListener {
+        // Everything loaded so far; called with cached notes first, then again only if the server's differ
+        void onNotes(List<Note> notes);
+        // A page finished revalidating, whether or not anything changed
+        void onLoadFinished();
+        void onError(String error);
+    }
+
+    public interface StoredListener {
+        // The note is saved locally with its id (temporary for a create) and queued for sending; disk thread
+        void onStored(Note note);
+    }
+
+    // Local writes as they happen, so open lists can update without reloading; disk thread
+    interface NoteChangeListener {
+        // note replaces the one stored as previousId (its temporary id after a create), or is new.
+        // Not pending means the stored note is the server's copy with nothing left to send.
+        void onNoteChanged(int previousId, Note note);
+        void onNoteRemoved(int noteId);
+    }
+
+    private final ApiService apiService;
+    private final NoteStore store;
+    private final Outbox outbox;
+    private final FirebaseAuth auth;
+    // Single writer thread keeps store updates ordered
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "note-store"));
+    // Searches only read, so they run beside store writes instead of queueing behind them
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "note-search"));
+    // Callers waiting on each queued operation, by outbox seq; disk thread only
+    private final Map<Long, List<Waiter>> waiters = new HashMap<>();
+    private boolean flushing;
+    private final List<NoteChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    public NoteRepository(ApiService apiService, NoteStore store, Outbox outbox, FirebaseAuth auth) {
+        this.apiService = apiService;
+        this.store = store;
+        this.outbox = outbox;
+        this.auth = auth;
+        // Anything marked in flight when the process died was never confirmed
+        diskExecutor.execute(outbox::release);
+    }
+
+    // Starts a fresh paged view of the list; call loadNextPage() to fetch the first page
+    // Close it when it is replaced or no longer shown
+    public NotePager openPager(NotesListener listener) {
+        NotePager pager = new NotePager(this, apiService, store, diskExecutor, currentUserId(),
+                Config.NOTES_PAGE_SIZE, listener);
+        changeListeners.add(pager);
+        return pager;
+    }
+
+    void addChangeListener(NoteChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    void removeChangeListener(NoteChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    // Ranked full-text search of the local store; never touches the network
+    public void searchNotes(String query, ApiService.ApiCallback<List<Note>> callback) {
+        String userId = currentUserId();
+        if (userId == null) {
+            callback.onError("Not signed in");
+            return;
+        }
+        searchExecutor.execute(() -> {
+            long start = System.nanoTime();
+            List<Note> results;
+            try {
+                results = store.search(userId, query, Config.SEARCH_RESULT_LIMIT);
+            } catch (RuntimeException e) {
+                // Never the query itself: it is note content
+                Log.w(TAG, "Search failed", e);
+                callback.onError("Search failed: " + e.getMessage());
+                return;
+            }
+            Log.d(TAG, "Search: " + results.size() + " results in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+            callback.onSuccess(results);
+        });
+    }
+
+    /**
+     * Loads one note with its full content for editing. The server copy is preferred
+     * (the HTTP cache makes an unchanged note a 304); the stored copy is used for
+     * notes with unsent changes and when the server can't be reached.
+     */
+    public void getNote(int noteId, ApiService.ApiCallback<Note> callback) {
+        diskExecutor.execute(() -> {
+            Note stored = store.getNote(noteId);
+            if (stored != null && stored.hasContent() && pendingNoteIds().contains(noteId)) {
+                stored.setPending(true);
+                callback.onSuccess(stored);
+                return;
+            }
+            apiService.getNote(noteId, new ApiService.ApiCallback<Note>() {
+                @Override
+                public void onSuccess(Note result) {
+                    diskExecutor.execute(() -> {
+                        String userId = currentUserId();
+                        if (userId != null && !pendingNoteIds().contains(noteId)) {
+                            store.upsert(result, userId);
+                        }
+                        callback.onSuccess(result);
+                    });
+                }
+
+                @Override
+                public void onError(String error) {
+                    if (stored != null && stored.hasContent()) {
+                        Log.w(TAG, "Using stored copy of note " + noteId + ": " + error);
+                        callback.onSuccess(stored);
+                    } else {
+                        callback.onError(error);
+                    }
+                }
+            });
+        });
+    }
+
+    public void createNote(Note note, ApiService.ApiCallback<Note> callback) {
+        createNote(note, null, callback);
+    }
+
+    public void createNote(Note note, StoredListener storedListener, ApiService.ApiCallback<Note> callback) {
+        String userId = currentUserId();
+        if (userId == null) {
+            callback.onError("Not signed in");
+            return;
+        }
+        diskExecutor.execute(() -> {
+            // Saved locally under a temporary id until the server assigns the real one
+            note.setId(store.nextLocalId());
+            note.setUserId(userId);
+            note.setCreatedAt(timestampFormat().format(new Date()));
+            store.upsert(note, userId);
+            enqueue(NoteOperation.CREATE, note, null, callback);
+            if (storedListener != null) {
+                storedListener.onStored(note);
+            }
+            notifyChanged(note.getId(), note);
+        });
+    }
+
+    public void updateNote(int noteId, Note note, ApiService.ApiCallback<Note> callback) {
+        updateNote(noteId, note, null, callback);
+    }
+
+    public void updateNote(int noteId, Note note, StoredListener storedListener, ApiService.ApiCallback<Note> callback) {
+        String userId = currentUserId();
+        if (userId == null) {
+            callback.onError("Not signed in");
+            return;
+        }
+        diskExecutor.execute(() -> {
+            Note stored = store.getNote(noteId);
+            note.setId(noteId);
+            note.setUserId(userId);
+            if (stored != null) {
+                note.setUserEmail(stored.getUserEmail());
+                note.setCreatedAt(stored.getCreatedAt());
+            }
+            // With nothing queued, the stored content is the server's, so only the change needs sending
+            String baseContent = stored != null && stored.hasContent() && !pendingNoteIds().contains(noteId)
+                    ? stored.getContent() : null;
+            store.upsert(note, userId);
+            enqueue(NoteOperation.UPDATE, note, baseContent, callback);
+            if (storedListener != null) {
+                storedListener.onStored(note);
+            }
+            notifyChanged(noteId, note);
+        });
+    }
+
+    public void deleteNote(int noteId, ApiService.ApiCallback<Void> callback) {
+        diskExecutor.execute(() -> {
+            store.delete(noteId);
+            notifyRemoved(noteId);
+            Note deleted = new Note();
+            deleted.setId(noteId);
+            enqueue(NoteOperation.DELETE, deleted, null, new ApiService.ApiCallback<Note>() {
+                @Override
+                public void onSuccess(Note result) {
+                    callback.onSuccess(null);
+                }
+
+                @Override
+                public void onError(String error) {
+                    callback.onError(error);
+                }
+            });
+        });
+    }
+
+    /**
+     * Appends an uploaded file to a note on the server and stores the result. Fails
+     * with {@link #NOT_SYNCED} while the note has queued changes, since replaying
+     * them afterwards would overwrite the attachment; retry once it has synced.
+     */
+    public void addAttachment(int noteId, Attachment attachment, boolean primary,
+                              ApiService.ApiCallback<Note> callback) {
+        diskExecutor.execute(() -> {
+            if (noteId < 0 || pendingNoteIds().contains(noteId)) {
+                callback.onError(NOT_SYNCED);
+                return;
+            }
+            apiService.addAttachment(noteId, attachment, primary, new ApiService.ApiCallback<Note>() {
+                @Override
+                public void onSuccess(Note result) {
+                    diskExecutor.execute(() -> {
+                        String userId = currentUserId();
+                        if (userId != null && !pendingNoteIds().contains(noteId)) {
+                            store.upsert(result, userId);
+                            notifyChanged(noteId, result);
+                        }
+                        callback.onSuccess(result);
+                    });
+                }
+
+                @Override
+                public void onError(String error) {
+                    callback.onError(error);
+                }
+            });
+        });
+    }
+
+    // Send whatever is queued, e.g. at startup or when the network comes back
+    public void flushOutbox() {
+        diskExecutor.execute(this::sendNextBatch);
+    }
+
+    private void enqueue(String op, Note note, String baseContent, ApiService.ApiCallback<Note> callback) {
+        long seq = outbox.enqueue(op, note.getId(),
+                NoteOperation.DELETE.equals(op) ? null : note, baseContent);
+        if (seq == Outbox.CANCELLED) {
+            // Deleted before its create was ever sent; the server never needs to know
+            dropWaiters(note.getId());
+            callback.onSuccess(null);
+            return;
+        }
+        List<Waiter> list = waiters.get(seq);
+        if (list == null) {
+            list = new ArrayList<>();
+            waiters.put(seq, list);
+        }
+        list.add(new Waiter(note, callback));
+        sendNextBatch();
+    }
+
+    // Runs on the disk thread; at most one batch is on the wire at a time
+    private void sendNextBatch() {
+        if (flushing) {
+            return;
+        }
+        List<NoteOperation> batch = outbox.takeBatch(Config.OUTBOX_BATCH_SIZE);
+        if (batch.isEmpty()) {
+            return;
+        }
+        flushing = true;
+        apiService.replayBatch(batch, new ApiService.ApiCallback<List<NoteOperationResult>>() {
+            @Override
+            public void onSuccess(List<NoteOperationResult> results) {
+                diskExecutor.execute(() -> {
+                    flushing = false;
+                    if (applyResults(batch, results)) {
+                        sendNextBatch();
+                    } else {
+                        settleAsPending();
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String error) {
+                Log.w(TAG, "Outbox replay failed, keeping " + batch.size() + " operations: " + error);
+                diskExecutor.execute(() -> {
+                    flushing = false;
+                    outbox.release();
+                    settleAsPending();
+                });
+            }
+        });
+    }
+
+    // Returns false if anything failed transiently and should wait for the next flush
+    private boolean applyResults(List<NoteOperation> batch, List<NoteOperationResult> results) {
+        boolean allSettled = true;
+        String userId = currentUserId();
+        for (int i = 0; i < batch.size(); i++) {
+            NoteOperation operation = batch.get(i);
+            NoteOperationResult result = i < results.size() ? results.get(i) : null;
+            if (result == null || result.isTransient()) {
+                allSettled = false;
+                continue;
+            }
+
+            int noteId = operation.getNoteId();
+            if (noteId < 0 && !NoteOperation.CREATE.equals(operation.getOp())) {
+                // Sent before its create had a server id; it stays queued (remapped) and goes again
+                continue;
+            }
+
+            if (result.getStatus() == 409 && operation.getPatch() != null) {
+                // The server's content isn't what the patch was made against; resend it whole
+                Log.w(TAG, "Patch for note " + noteId + " no longer applies, sending full content");
+                outbox.dropBaseContent(operation.getSeq());
+                continue;
+            }
+
+            outbox.remove(operation.getSeq());
+            boolean deleteOfMissingNote = NoteOperation.DELETE.equals(operation.getOp())
+                    && result.getStatus() == 404;
+            if (!result.isSuccessful() && !deleteOfMissingNote) {
+                if (NoteOperation.CREATE.equals(operation.getOp())) {
+                    // The note never made it to the server, so drop the local copy and its edits
+                    store.delete(noteId);
+                    notifyRemoved(noteId);
+                    for (long dependent : outbox.removeNote(noteId)) {
+                        fail(dependent, "Note could not be created");
+                    }
+                } else {
+                    // Undo the local change by putting back whatever the server still has
+                    restoreFromServer(noteId);
+                }
+                fail(operation.getSeq(), result.getError() != null
+                        ? result.getError() : "Error " + result.getStatus());
+                continue;
+            }
+
+            Note serverNote = result.getNote();
+            if (serverNote != null && userId != null) {
+                boolean created = NoteOperation.CREATE.equals(operation.getOp());
+                Note local = null;
+                if (created) {
+                    local = store.getNote(noteId);
+                    store.delete(noteId);
+                    outbox.remapNoteId(noteId, serverNote.getId());
+                }
+                // Newer local edits still queued for this note win over the server copy
+                if (!outbox.pendingNoteIds().contains(serverNote.getId())) {
+                    store.upsert(serverNote, userId);
+                    notifyChanged(noteId, serverNote);
+                } else if (local != null) {
+                    // Keep showing those edits, but under the server's id and created_at
+                    local.setId(serverNote.getId());
+                    local.setCreatedAt(serverNote.getCreatedAt());
+                    local.setUserEmail(serverNote.getUserEmail());
+                    store.upsert(local, userId);
+                    notifyChanged(noteId, local);
+                }
+            }
+            succeed(operation.getSeq(), serverNote);
+        }
+        outbox.release();
+        return allSettled;
+    }
+
+    // Re-reads a note after the server rejected a change to it; disk thread
+    private void restoreFromServer(int noteId) {
+        apiService.getNote(noteId, new ApiService.ApiCallback<Note>() {
+            @Override
+            public void onSuccess(Note result) {
+                diskExecutor.execute(() -> {
+                    String userId = currentUserId();
+                    // A newer local change is already showing and will go to the server next
+                    if (userId != null && !pendingNoteIds().contains(noteId)) {
+                        store.upsert(result, userId);
+                        notifyChanged(noteId, result);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String error) {
+                if (!error.startsWith("Error 404")) {
+                    Log.w(TAG, "Could not restore note " + noteId + ": " + error);
+                    return;
+                }
+                diskExecutor.execute(() -> {
+                    if (!pendingNoteIds().contains(noteId)) {
+                        store.delete(noteId);
+                        notifyRemoved(noteId);
+                    }
+                });
+            }
+        });
+    }
+
+    private void notifyChanged(int previousId, Note note) {
+        note.setPending(outbox.pendingNoteIds().contains(note.getId()));
+        for (NoteChangeListener listener : changeListeners) {
+            listener.onNoteChanged(previousId, note);
+        }
+    }
+
+    private void notifyRemoved(int noteId) {
+        for (NoteChangeListener listener : changeListeners) {
+            listener.onNoteRemoved(noteId);
+        }
+    }
+
+    private void succeed(long seq, Note serverNote) {
+        List<Waiter> settled = waiters.remove(seq);
+        if (settled != null) {
+            for (Waiter waiter : settled) {
+                waiter.callback.onSuccess(serverNote);
+            }
+        }
+    }
+
+    private void fail(long seq, String error) {
+        List<Waiter> settled = waiters.remove(seq);
+        if (settled != null) {
+            for (Waiter waiter : settled) {
+                waiter.callback.onError(error);
+            }
+        }
+    }
+
+    // Report everything still queued as saved locally; it syncs on a later flush
+    private void settleAsPending() {
+        for (List<Waiter> settled : waiters.values()) {
+            for (Waiter waiter : settled) {
+                waiter.note.setPending(true);
+                waiter.callback.onSuccess(waiter.note);
+            }
+        }
+        waiters.clear();
+    }
+
+    private void dropWaiters(int noteId) {
+        Iterator<List<Waiter>> iterator = waiters.values().iterator();
+        while (iterator.hasNext()) {
+            List<Waiter> list = iterator.next();
+            if (!list.isEmpty() && list.get(0).note.getId() == noteId) {
+                for (Waiter waiter : list) {
+                    waiter.callback.onSuccess(null);
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    // Disk thread only
+    Set<Integer> pendingNoteIds() {
+        return outbox.pendingNoteIds();
+    }
+
+    // Marks notes that still have queued changes; disk thread only
+    List<Note> markPending(List<Note> notes) {
+        Set<Integer> pendingIds = outbox.pendingNoteIds();
+        for (Note note : notes) {
+            note.setPending(pendingIds.contains(note.getId()));
+        }
+        return notes;
+    }
+
+    // Wipe the local copy, e.g. on sign-out. Unsent changes belong to the old account
+    // and must not be replayed under the next one.
+    public void clearLocalData() {
+        diskExecutor.execute(() -> {
+            long dropped = outbox.size();
+            if (dropped > 0) {
+                Log.w(TAG, "Discarding " + dropped + " unsent note operations on sign-out");
+            }
+            outbox.clear();
+            store.clear();
+        });
+    }
+
+    // ISO-8601 in UTC like the server's created_at, so local and server notes sort together
+    private static SimpleDateFormat timestampFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    private String currentUserId() {
+        FirebaseUser user = auth.getCurrentUser();
+        return user != null ? user.getUid() : null;
+    }
+
+    // A caller waiting for an outbox operation to reach the server
+    private static class Waiter {
+        final Note note;
+        final ApiService.ApiCallback<Note> callback;
+
+        Waiter(Note note, ApiService.ApiCallback<Note> callback) {
+            this.note = note;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.noteapp.android.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.noteapp.android.models.Note;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Locale;
+
+/**
+ * FTS4 full-text index over note titles and bodies ({@link NoteDatabase#TABLE_NOTES_FTS}).
+ *
+ * Rows are keyed by note id (docid) and written by {@link NoteStore} in the same
+ * transaction as the note itself, so the index never drifts from the notes table.
+ * Ranking is Okapi BM25 computed from FTS4's matchinfo(), with title hits weighted
+ * above body hits; SQLite on older devices has no built-in ranking function.
+ */
+final class NoteSearchIndex {
+    // matchinfo() format: phrases, columns, rows, average tokens, row tokens, hit counts
+    static final String MATCHINFO_FORMAT = "pcnalx";
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // Per column of the FTS table: title, body
+    private static final double[] COLUMN_WEIGHTS = {3.0, 1.0};
+
+    private NoteSearchIndex() {
+    }
+
+    static void index(SQLiteDatabase db, Note note) {
+        remove(db, note.getId());
+        // Full content when this device has it, otherwise the list preview
+        String body = note.hasContent() ? note.getContent() : note.getPreview();
+        db.execSQL("INSERT INTO " + NoteDatabase.TABLE_NOTES_FTS + " (docid, "
+                        + NoteDatabase.COLUMN_FTS_TITLE + ", " + NoteDatabase.COLUMN_FTS_BODY + ") VALUES (?, ?, ?)",
+                new Object[]{note.getId(), note.getTitle(), body});
+    }
+
+    static void remove(SQLiteDatabase db, int noteId) {
+        db.execSQL("DELETE FROM " + NoteDatabase.TABLE_NOTES_FTS + " WHERE docid = ?", new Object[]{noteId});
+    }
+
+    static void clear(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + NoteDatabase.TABLE_NOTES_FTS);
+    }
+
+    /**
+     * Turns what the user typed into an FTS MATCH expression: every word must match,
+     * and the last one may be a prefix since it is probably still being typed.
+     * Returns null if there is nothing to search for.
+     */
+    static String toMatchQuery(String input) {
+        StringBuilder query = new StringBuilder();
+        StringBuilder token = new StringBuilder();
+        String lower = input.toLowerCase(Locale.ROOT);
+        for (int i = 0; i <= lower.length(); i++) {
+            char c = i < lower.length() ? lower.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token.append(c);
+            } else if (token.length() > 0) {
+                if (query.length() > 0) {
+                    query.append(' ');
+                }
+                // Lower-case words never collide with the AND/OR/NOT operators
+                query.append(token);
+                token.setLength(0);
+            }
+        }
+        return query.length() > 0 ? query.append('*').toString() : null;
+    }
+
+    // BM25 score of one matching row from its matchinfo(MATCHINFO_FORMAT) blob; higher is better
+    static double score(byte[] matchinfo) {
+        IntBuffer info = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = info.get(0);
+        int columns = info.get(1);
+        int rows = info.get(2);
+        int averageStart = 3;
+        int lengthStart = averageStart + columns;
+        int hitsStart = lengthStart + columns;
+
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns && column < COLUMN_WEIGHTS.length; column++) {
+                int hits = hitsStart + 3 * (column + phrase * columns);
+                int termFrequency = info.get(hits);
+                if (termFrequency == 0) {
+                    continue;
+                }
+                int documentFrequency = info.get(hits + 2);
+                double idf = Math.max(1e-6,
+                        Math.log((rows - documentFrequency + 0.5) / (documentFrequency + 0.5)));
+                double averageLength = Math.max(1, info.get(averageStart + column));
+                double length = info.get(lengthStart + column);
+                score += COLUMN_WEIGHTS[column] * idf * termFrequency * (K1 + 1)
+                        / (termFrequency + K1 * (1 - B + B * length / averageLength));
+            }
+        }
+        return score;
+    }
+}
@@ -0,0 +1,300 @@
+package com.noteapp.android.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.noteapp.android.models.Note;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Reads and writes notes in {@link NoteDatabase}. All methods block; call them from
+ * a background thread.
+ */
+public class NoteStore {
+    private static final String[] COLUMNS = {
+            NoteDatabase.COLUMN_ID,
+            NoteDatabase.COLUMN_TITLE,
+            NoteDatabase.COLUMN_CONTENT,
+            NoteDatabase.COLUMN_USER_ID,
+            NoteDatabase.COLUMN_USER_EMAIL,
+            NoteDatabase.COLUMN_CREATED_AT,
+            NoteDatabase.COLUMN_FILE_URL,
+            NoteDatabase.COLUMN_FILE_NAME,
+            NoteDatabase.COLUMN_PREVIEW
+    };
+
+    // Same order as GET /api/notes; idx_notes_user_created serves it
+    private static final String ORDER_BY =
+            NoteDatabase.COLUMN_CREATED_AT + " DESC, " + NoteDatabase.COLUMN_ID + " DESC";
+
+    private final NoteDatabase database;
+
+    public NoteStore(NoteDatabase database) {
+        this.database = database;
+    }
+
+    // Newest first, same order as GET /api/notes
+    public List<Note> getNotes(String userId) {
+        return getNotesInRange(userId, null, null);
+    }
+
+    public Note getNote(int noteId) {
+        try (Cursor cursor = database.getReadableDatabase().query(NoteDatabase.TABLE_NOTES, COLUMNS,
+                NoteDatabase.COLUMN_ID + " = ?", new String[]{String.valueOf(noteId)},
+                null, null, null)) {
+            return cursor.moveToFirst() ? fromCursor(cursor) : null;
+        }
+    }
+
+    /**
+     * Up to {@code limit} notes that sort after {@code after} (exclusive), or from the
+     * top when it is null. Keyset paging, so deep pages cost the same as the first.
+     */
+    public List<Note> getNotesPage(String userId, Note after, int limit) {
+        List<String> args = new ArrayList<>();
+        String selection = userSelection(userId, after, null, args);
+        return query(selection, args, String.valueOf(limit));
+    }
+
+    // Notes between two list positions: after {@code upper} (exclusive) down to {@code lower} (inclusive)
+    public List<Note> getNotesInRange(String userId, Note upper, Note lower) {
+        List<String> args = new ArrayList<>();
+        return query(userSelection(userId, upper, lower, args), args, null);
+    }
+
+    /**
+     * Makes the stored notes for {@code userId} match the server's list, which may be
+     * full notes or list summaries (no content), writing only
+     * rows that were added, changed or removed. Notes in {@code pendingIds} have local
+     * changes the server hasn't seen yet and are left alone. Returns true if anything
+     * changed.
+     */
+    public boolean applySnapshot(String userId, List<Note> serverNotes, Set<Integer> pendingIds) {
+        return applyRange(userId, serverNotes, null, null, pendingIds);
+    }
+
+    /**
+     * Like {@link #applySnapshot} but only for the part of the list one server page
+     * covers, between {@code upper} (exclusive) and {@code lower} (inclusive); null
+     * bounds are open. Notes outside the range are not touched.
+     */
+    public boolean applyRange(String userId, List<Note> serverNotes, Note upper, Note lower,
+                              Set<Integer> pendingIds) {
+        Map<Integer, Note> existing = new HashMap<>();
+        for (Note note : getNotesInRange(userId, upper, lower)) {
+            existing.put(note.getId(), note);
+        }
+        existing.keySet().removeAll(pendingIds);
+
+        boolean changed = false;
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Note note : serverNotes) {
+                if (pendingIds.contains(note.getId())) {
+                    continue;
+                }
+                Note stored = existing.remove(note.getId());
+                // A summary replaces a stored full note only if what it covers has changed
+                boolean same = stored != null && (note.hasContent()
+                        ? stored.hasSameContent(note) : stored.hasSameSummary(note));
+                if (!same) {
+                    write(db, note, userId);
+                    changed = true;
+                }
+            }
+            for (Integer removedId : existing.keySet()) {
+                deleteRow(db, removedId);
+                changed = true;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return changed;
+    }
+
+    // Ids for notes created offline are negative so they can't clash with server ids
+    public int nextLocalId() {
+        try (Cursor cursor = database.getReadableDatabase().rawQuery(
+                "SELECT MIN(" + NoteDatabase.COLUMN_ID + ") FROM " + NoteDatabase.TABLE_NOTES, null)) {
+            int min = cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getInt(0) : 0;
+            return Math.min(min, 0) - 1;
+        }
+    }
+
+    public void upsert(Note note, String userId) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            write(db, note, userId);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void delete(int noteId) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            deleteRow(db, noteId);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void clear() {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(NoteDatabase.TABLE_NOTES, null, null);
+            NoteSearchIndex.clear(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Full-text search over the user's notes, best match first. Matching and ranking
+     * run entirely on the device, against whatever text the store has for each note.
+     * Only ids and matchinfo are read while ranking; the notes themselves are loaded
+     * for the top {@code limit} hits alone.
+     */
+    public List<Note> search(String userId, String input, int limit) {
+        String match = NoteSearchIndex.toMatchQuery(input);
+        if (match == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        String sql = "SELECT " + NoteDatabase.TABLE_NOTES_FTS + ".docid, matchinfo(" + NoteDatabase.TABLE_NOTES_FTS
+                + ", '" + NoteSearchIndex.MATCHINFO_FORMAT + "')"
+                + " FROM " + NoteDatabase.TABLE_NOTES_FTS
+                + " JOIN " + NoteDatabase.TABLE_NOTES + " n ON n." + NoteDatabase.COLUMN_ID
+                + " = " + NoteDatabase.TABLE_NOTES_FTS + ".docid"
+                + " WHERE " + NoteDatabase.TABLE_NOTES_FTS + " MATCH ? AND n." + NoteDatabase.COLUMN_USER_ID + " = ?"
+                + " ORDER BY n." + NoteDatabase.COLUMN_CREATED_AT + " DESC, n." + NoteDatabase.COLUMN_ID + " DESC";
+
+        // Worst kept hit on top, so each better one replaces it; equal scores keep the newer note
+        Comparator<Hit> ranking = (a, b) -> a.score != b.score
+                ? Double.compare(b.score, a.score) : Integer.compare(a.position, b.position);
+        PriorityQueue<Hit> top = new PriorityQueue<>(limit + 1, ranking.reversed());
+        try (Cursor cursor = database.getReadableDatabase().rawQuery(sql, new String[]{match, userId})) {
+            while (cursor.moveToNext()) {
+                top.add(new Hit(cursor.getInt(0), NoteSearchIndex.score(cursor.getBlob(1)), cursor.getPosition()));
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+        }
+        if (top.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<Hit> hits = new ArrayList<>(top);
+        hits.sort(ranking);
+        List<String> args = new ArrayList<>();
+        StringBuilder ids = new StringBuilder();
+        for (Hit hit : hits) {
+            ids.append(ids.length() > 0 ? ", ?" : "?");
+            args.add(String.valueOf(hit.noteId));
+        }
+        Map<Integer, Note> byId = new HashMap<>();
+        for (Note note : query(NoteDatabase.COLUMN_ID + " IN (" + ids + ")", args, null)) {
+            byId.put(note.getId(), note);
+        }
+        List<Note> notes = new ArrayList<>(hits.size());
+        for (Hit hit : hits) {
+            Note note = byId.get(hit.noteId);
+            if (note != null) {
+                notes.add(note);
+            }
+        }
+        return notes;
+    }
+
+    // One search match; position is its place in newest-first order
+    private static final class Hit {
+        final int noteId;
+        final double score;
+        final int position;
+
+        Hit(int noteId, double score, int position) {
+            this.noteId = noteId;
+            this.score = score;
+            this.position = position;
+        }
+    }
+
+    private List<Note> query(String selection, List<String> args, String limit) {
+        List<Note> notes = new ArrayList<>();
+        try (Cursor cursor = database.getReadableDatabase().query(NoteDatabase.TABLE_NOTES, COLUMNS,
+                selection, args.toArray(new String[0]), null, null, ORDER_BY, limit)) {
+            while (cursor.moveToNext()) {
+                notes.add(fromCursor(cursor));
+            }
+        }
+        return notes;
+    }
+
+    // WHERE clause for one user's notes strictly after {@code upper} and at or before {@code lower}
+    private static String userSelection(String userId, Note upper, Note lower, List<String> args) {
+        StringBuilder selection = new StringBuilder(NoteDatabase.COLUMN_USER_ID + " = ?");
+        args.add(userId);
+        if (upper != null) {
+            selection.append(" AND (" + NoteDatabase.COLUMN_CREATED_AT + " < ? OR ("
+                    + NoteDatabase.COLUMN_CREATED_AT + " = ? AND " + NoteDatabase.COLUMN_ID + " < ?))");
+            args.add(upper.getCreatedAt());
+            args.add(upper.getCreatedAt());
+            args.add(String.valueOf(upper.getId()));
+        }
+        if (lower != null) {
+            selection.append(" AND (" + NoteDatabase.COLUMN_CREATED_AT + " > ? OR ("
+                    + NoteDatabase.COLUMN_CREATED_AT + " = ? AND " + NoteDatabase.COLUMN_ID + " >= ?))");
+            args.add(lower.getCreatedAt());
+            args.add(lower.getCreatedAt());
+            args.add(String.valueOf(lower.getId()));
+        }
+        return selection.toString();
+    }
+
+    private static void write(SQLiteDatabase db, Note note, String userId) {
+        ContentValues values = new ContentValues();
+        values.put(NoteDatabase.COLUMN_ID, note.getId());
+        values.put(NoteDatabase.COLUMN_TITLE, note.getTitle());
+        values.put(NoteDatabase.COLUMN_CONTENT, note.getContent());
+        values.put(NoteDatabase.COLUMN_USER_ID, note.getUserId() != null ? note.getUserId() : userId);
+        values.put(NoteDatabase.COLUMN_USER_EMAIL, note.getUserEmail());
+        values.put(NoteDatabase.COLUMN_CREATED_AT, note.getCreatedAt());
+        values.put(NoteDatabase.COLUMN_FILE_URL, note.getFileUrl());
+        values.put(NoteDatabase.COLUMN_FILE_NAME, note.getFileName());
+        values.put(NoteDatabase.COLUMN_PREVIEW, note.getPreview());
+        db.insertWithOnConflict(NoteDatabase.TABLE_NOTES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        NoteSearchIndex.index(db, note);
+    }
+
+    private static void deleteRow(SQLiteDatabase db, int noteId) {
+        db.delete(NoteDatabase.TABLE_NOTES, NoteDatabase.COLUMN_ID + " = ?", new String[]{String.valueOf(noteId)});
+        NoteSearchIndex.remove(db, noteId);
+    }
+
+    private static Note fromCursor(Cursor cursor) {
+        Note note = new Note(cursor.getString(1), cursor.getString(2), cursor.getString(6), cursor.getString(7));
+        note.setId(cursor.getInt(0));
+        note.setUserId(cursor.getString(3));
+        note.setUserEmail(cursor.getString(4));
+        note.setCreatedAt(cursor.getString(5));
+        note.setPreview(cursor.getString(8));
+        return note;
+    }
+}
@@ -0,0 +1,224 @@
+package com.noteapp.android.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.google.gson.Gson;
+import com.noteapp.android.models.ContentPatch;
+import com.noteapp.android.models.Note;
+import com.noteapp.android.models.NoteOperation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Durable write-ahead queue of note mutations that still have to reach the server.
+ *
+ * Mutations are collapsed on the way in: repeated edits of a note become one update,
+ * an edit of a note whose create hasn't been sent is folded into that create, and
+ * deleting such a note cancels it altogether. Operations already handed out for
+ * sending ("in flight") are never modified. An update of a long note that was
+ * queued against a known server copy is sent as a {@link ContentPatch} instead of
+ * the full content. All methods block; call them from the repository's disk thread.
+ */
+public class Outbox {
+    // Returned by enqueue when the mutation cancelled out a pending create
+    public static final long CANCELLED = -1;
+
+    private final NoteDatabase database;
+    private final Gson gson;
+    // Shorter content is always sent whole
+    private final int patchMinChars;
+
+    public Outbox(NoteDatabase database, Gson gson, int patchMinChars) {
+        this.database = database;
+        this.gson = gson;
+        this.patchMinChars = patchMinChars;
+    }
+
+    /**
+     * Records a mutation and returns the seq of the operation that now carries it,
+     * which may be an existing one it was collapsed into, or {@link #CANCELLED}.
+     * baseContent is the server's content for an update, if known; an update that is
+     * collapsed into an earlier one keeps that one's base.
+     */
+    public long enqueue(String op, int noteId, Note note, String baseContent) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            long seq;
+            if (NoteOperation.CREATE.equals(op)) {
+                seq = insert(db, op, noteId, note);
+            } else if (NoteOperation.UPDATE.equals(op)) {
+                seq = findQueued(db, noteId, NoteOperation.CREATE, NoteOperation.UPDATE);
+                if (seq >= 0) {
+                    ContentValues values = new ContentValues();
+                    values.put(NoteDatabase.COLUMN_PAYLOAD, gson.toJson(note));
+                    db.update(NoteDatabase.TABLE_OUTBOX, values, NoteDatabase.COLUMN_SEQ + " = ?",
+                            new String[]{String.valueOf(seq)});
+                } else {
+                    seq = insert(db, op, noteId, note);
+                    if (baseContent != null) {
+                        setBaseContent(db, seq, baseContent);
+                    }
+                }
+            } else {
+                boolean createQueued = findQueued(db, noteId, NoteOperation.CREATE) >= 0;
+                // Nothing queued for this note needs to be sent once it is deleted
+                db.delete(NoteDatabase.TABLE_OUTBOX, NoteDatabase.COLUMN_NOTE_ID + " = ? AND "
+                                + NoteDatabase.COLUMN_IN_FLIGHT + " = 0",
+                        new String[]{String.valueOf(noteId)});
+                seq = createQueued ? CANCELLED : insert(db, op, noteId, null);
+            }
+            db.setTransactionSuccessful();
+            return seq;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Oldest queued operations, marked in flight so later edits don't collapse into them
+    public List<NoteOperation> takeBatch(int limit) {
+        List<NoteOperation> batch = new ArrayList<>();
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try (Cursor cursor = db.query(NoteDatabase.TABLE_OUTBOX,
+                new String[]{NoteDatabase.COLUMN_SEQ, NoteDatabase.COLUMN_OP, NoteDatabase.COLUMN_NOTE_ID,
+                        NoteDatabase.COLUMN_PAYLOAD, NoteDatabase.COLUMN_IDEMPOTENCY_KEY,
+                        NoteDatabase.COLUMN_BASE_CONTENT},
+                NoteDatabase.COLUMN_IN_FLIGHT + " = 0", null, null, null,
+                NoteDatabase.COLUMN_SEQ, String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                String payload = cursor.getString(3);
+                batch.add(toOperation(cursor.getLong(0), cursor.getString(1), cursor.getInt(2),
+                        payload != null ? gson.fromJson(payload, Note.class) : null,
+                        cursor.getString(4), cursor.getString(5)));
+            }
+            if (!batch.isEmpty()) {
+                ContentValues values = new ContentValues();
+                values.put(NoteDatabase.COLUMN_IN_FLIGHT, 1);
+                db.update(NoteDatabase.TABLE_OUTBOX, values, NoteDatabase.COLUMN_SEQ + " <= ? AND "
+                                + NoteDatabase.COLUMN_IN_FLIGHT + " = 0",
+                        new String[]{String.valueOf(batch.get(batch.size() - 1).getSeq())});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return batch;
+    }
+
+    // Send this update with its full content next time, e.g. after the server's copy moved on
+    public void dropBaseContent(long seq) {
+        setBaseContent(database.getWritableDatabase(), seq, null);
+    }
+
+    public void remove(long seq) {
+        database.getWritableDatabase().delete(NoteDatabase.TABLE_OUTBOX,
+                NoteDatabase.COLUMN_SEQ + " = ?", new String[]{String.valueOf(seq)});
+    }
+
+    // Drops every operation for a note and returns their seqs
+    public List<Long> removeNote(int noteId) {
+        List<Long> removed = new ArrayList<>();
+        SQLiteDatabase db = database.getWritableDatabase();
+        String[] args = {String.valueOf(noteId)};
+        db.beginTransaction();
+        try (Cursor cursor = db.query(NoteDatabase.TABLE_OUTBOX, new String[]{NoteDatabase.COLUMN_SEQ},
+                NoteDatabase.COLUMN_NOTE_ID + " = ?", args, null, null, null)) {
+            while (cursor.moveToNext()) {
+                removed.add(cursor.getLong(0));
+            }
+            db.delete(NoteDatabase.TABLE_OUTBOX, NoteDatabase.COLUMN_NOTE_ID + " = ?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return removed;
+    }
+
+    // Make in-flight operations eligible for sending again, e.g. after a network failure
+    public void release() {
+        ContentValues values = new ContentValues();
+        values.put(NoteDatabase.COLUMN_IN_FLIGHT, 0);
+        database.getWritableDatabase().update(NoteDatabase.TABLE_OUTBOX, values, null, null);
+    }
+
+    // Point queued operations at the server id once a locally created note has been created
+    public void remapNoteId(int localId, int serverId) {
+        ContentValues values = new ContentValues();
+        values.put(NoteDatabase.COLUMN_NOTE_ID, serverId);
+        database.getWritableDatabase().update(NoteDatabase.TABLE_OUTBOX, values,
+                NoteDatabase.COLUMN_NOTE_ID + " = ?", new String[]{String.valueOf(localId)});
+    }
+
+    // Notes with changes the server hasn't seen yet; revalidation must not overwrite them
+    public Set<Integer> pendingNoteIds() {
+        Set<Integer> ids = new HashSet<>();
+        try (Cursor cursor = database.getReadableDatabase().query(true, NoteDatabase.TABLE_OUTBOX,
+                new String[]{NoteDatabase.COLUMN_NOTE_ID}, null, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getInt(0));
+            }
+        }
+        return ids;
+    }
+
+    public long size() {
+        return DatabaseUtils.queryNumEntries(database.getReadableDatabase(), NoteDatabase.TABLE_OUTBOX);
+    }
+
+    public void clear() {
+        database.getWritableDatabase().delete(NoteDatabase.TABLE_OUTBOX, null, null);
+    }
+
+    private NoteOperation toOperation(long seq, String op, int noteId, Note note, String idempotencyKey,
+                                      String baseContent) {
+        if (baseContent == null || note == null || note.getContent() == null
+                || note.getContent().length() < patchMinChars) {
+            return new NoteOperation(seq, op, noteId, note, idempotencyKey);
+        }
+        ContentPatch patch = ContentPatch.between(baseContent, note.getContent());
+        // Everything but the content goes as before
+        Note withoutContent = new Note(note.getTitle(), null, note.getFileUrl(), note.getFileName());
+        return new NoteOperation(seq, op, noteId, withoutContent, idempotencyKey, patch);
+    }
+
+    private static void setBaseContent(SQLiteDatabase db, long seq, String baseContent) {
+        ContentValues values = new ContentValues();
+        values.put(NoteDatabase.COLUMN_BASE_CONTENT, baseContent);
+        db.update(NoteDatabase.TABLE_OUTBOX, values, NoteDatabase.COLUMN_SEQ + " = ?",
+                new String[]{String.valueOf(seq)});
+    }
+
+    private long insert(SQLiteDatabase db, String op, int noteId, Note note) {
+        ContentValues values = new ContentValues();
+        values.put(NoteDatabase.COLUMN_OP, op);
+        values.put(NoteDatabase.COLUMN_NOTE_ID, noteId);
+        values.put(NoteDatabase.COLUMN_PAYLOAD, note != null ? gson.toJson(note) : null);
+        values.put(NoteDatabase.COLUMN_IDEMPOTENCY_KEY, UUID.randomUUID().toString());
+        return db.insertOrThrow(NoteDatabase.TABLE_OUTBOX, null, values);
+    }
+
+    // Latest queued (not in flight) operation of one of the given kinds for a note, or -1
+    private static long findQueued(SQLiteDatabase db, int noteId, String... ops) {
+        StringBuilder selection = new StringBuilder(NoteDatabase.COLUMN_NOTE_ID + " = ? AND "
+                + NoteDatabase.COLUMN_IN_FLIGHT + " = 0 AND " + NoteDatabase.COLUMN_OP + " IN (");
+        String[] args = new String[ops.length + 1];
+        args[0] = String.valueOf(noteId);
+        for (int i = 0; i < ops.length; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+            args[i + 1] = ops[i];
+        }
+        selection.append(')');
+        try (Cursor cursor = db.query(NoteDatabase.TABLE_OUTBOX, new String[]{NoteDatabase.COLUMN_SEQ},
+                selection.toString(), args, null, null, NoteDatabase.COLUMN_SEQ + " DESC", "1")) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.noteapp.android.data;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Size-budgeted directory where picked attachments are copied before upload. Each
+ * staged file gets its own subdirectory, so two picks with the same display name
+ * never overwrite each other while the file keeps its original name for the upload.
+ * Entries are released once they are no longer needed; anything left behind (e.g.
+ * after a crash) is evicted oldest first when the budget would be exceeded. Files
+ * that must outlive eviction, like those waiting to upload, are moved out first.
+ */
+public class StagingArea {
+    private static final String TAG = "StagingArea";
+
+    private final File directory;
+    private final long maxBytes;
+
+    public StagingArea(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    // Reserve a new file named displayName, evicting old entries to make room for expectedBytes
+    public synchronized File allocate(String displayName, long expectedBytes) throws IOException {
+        trim(Math.max(0, expectedBytes));
+        File entry = new File(directory, UUID.randomUUID().toString());
+        if (!entry.mkdirs()) {
+            throw new IOException("Cannot create " + entry);
+        }
+        return new File(entry, sanitize(displayName));
+    }
+
+    /**
+     * Moves a staged file's entry into directory, where trimming can't reach it, and
+     * returns its new location. Files outside the staging area are returned as they are.
+     */
+    public synchronized File moveOut(File file, File directory) throws IOException {
+        File entry = file.getParentFile();
+        if (entry == null || !this.directory.equals(entry.getParentFile())) {
+            return file;
+        }
+        File target = new File(directory, entry.getName());
+        if ((!directory.isDirectory() && !directory.mkdirs()) || !entry.renameTo(target)) {
+            throw new IOException("Cannot move " + file.getName() + " to " + directory);
+        }
+        return new File(target, file.getName());
+    }
+
+    // Delete a staged file; files outside the staging area are left alone
+    public synchronized void release(File file) {
+        File entry = file != null ? file.getParentFile() : null;
+        if (entry == null || !directory.equals(entry.getParentFile())) {
+            return;
+        }
+        deleteEntry(entry);
+    }
+
+    // Evict oldest entries until the staging area fits its budget
+    public synchronized void trim() {
+        trim(0);
+    }
+
+    private void trim(long reserveBytes) {
+        File[] entries = directory.listFiles();
+        if (entries == null) {
+            return;
+        }
+        long total = 0;
+        for (File entry : entries) {
+            total += sizeOf(entry);
+        }
+        if (total + reserveBytes <= maxBytes) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File entry : entries) {
+            if (total + reserveBytes <= maxBytes) {
+                break;
+            }
+            long size = sizeOf(entry);
+            if (deleteEntry(entry)) {
+                total -= size;
+            }
+        }
+    }
+
+    private static long sizeOf(File entry) {
+        File[] files = entry.listFiles();
+        if (files == null) {
+            return entry.length();
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private static boolean deleteEntry(File entry) {
+        File[] files = entry.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        if (!entry.delete()) {
+            Log.w(TAG, "Failed to delete " + entry);
+            return false;
+        }
+        return true;
+    }
+
+    // Display names come from other apps; keep them from escaping the entry directory
+    private static String sanitize(String displayName) {
+        String name = displayName != null ? displayName.replaceAll("[/\\\\\\x00]", "_").trim() : "";
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            return "attachment";
+        }
+        return name;
+    }
+}
@@ -0,0 +1,100 @@
+package com.noteapp.android.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.google.gson.Gson;
+import com.noteapp.android.models.Attachment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Durable record of attachments handed to the {@link AttachmentUploader}, so uploads
+ * that were still running, or waiting to be attached to their note, resume after
+ * the process is killed. A row goes away once its file is attached or given up on.
+ * All methods block; call them from the uploader's thread.
+ */
+public class UploadQueue {
+    private final NoteDatabase database;
+    private final Gson gson;
+
+    public static final class Entry {
+        final long id;
+        final File file;
+        final int noteId;
+        final boolean primary;
+        // Null until the file has been uploaded
+        final Attachment uploaded;
+
+        Entry(long id, File file, int noteId, boolean primary, Attachment uploaded) {
+            this.id = id;
+            this.file = file;
+            this.noteId = noteId;
+            this.primary = primary;
+            this.uploaded = uploaded;
+        }
+    }
+
+    public UploadQueue(NoteDatabase database, Gson gson) {
+        this.database = database;
+        this.gson = gson;
+    }
+
+    public long add(File file, boolean primary) {
+        ContentValues values = new ContentValues();
+        values.put(NoteDatabase.COLUMN_FILE_PATH, file.getPath());
+        values.put(NoteDatabase.COLUMN_PRIMARY, primary ? 1 : 0);
+        return database.getWritableDatabase().insertOrThrow(NoteDatabase.TABLE_UPLOADS, null, values);
+    }
+
+    public void setNoteId(long id, int noteId) {
+        ContentValues values = new ContentValues();
+        values.put(NoteDatabase.COLUMN_NOTE_ID, noteId);
+        update(id, values);
+    }
+
+    // Follow a locally created note to its server id
+    public void remapNote(int localId, int serverId) {
+        ContentValues values = new ContentValues();
+        values.put(NoteDatabase.COLUMN_NOTE_ID, serverId);
+        database.getWritableDatabase().update(NoteDatabase.TABLE_UPLOADS, values,
+                NoteDatabase.COLUMN_NOTE_ID + " = ?", new String[]{String.valueOf(localId)});
+    }
+
+    public void setUploaded(long id, Attachment attachment) {
+        ContentValues values = new ContentValues();
+        values.put(NoteDatabase.COLUMN_ATTACHMENT, gson.toJson(attachment));
+        update(id, values);
+    }
+
+    public void remove(long id) {
+        database.getWritableDatabase().delete(NoteDatabase.TABLE_UPLOADS,
+                NoteDatabase.COLUMN_UPLOAD_ID + " = ?", new String[]{String.valueOf(id)});
+    }
+
+    public List<Entry> getAll() {
+        List<Entry> entries = new ArrayList<>();
+        try (Cursor cursor = database.getReadableDatabase().query(NoteDatabase.TABLE_UPLOADS,
+                new String[]{NoteDatabase.COLUMN_UPLOAD_ID, NoteDatabase.COLUMN_FILE_PATH,
+                        NoteDatabase.COLUMN_NOTE_ID, NoteDatabase.COLUMN_PRIMARY, NoteDatabase.COLUMN_ATTACHMENT},
+                null, null, null, null, NoteDatabase.COLUMN_UPLOAD_ID)) {
+            while (cursor.moveToNext()) {
+                String attachment = cursor.getString(4);
+                entries.add(new Entry(cursor.getLong(0), new File(cursor.getString(1)), cursor.getInt(2),
+                        cursor.getInt(3) != 0, attachment != null ? gson.fromJson(attachment, Attachment.class) : null));
+            }
+        }
+        return entries;
+    }
+
+    public void clear() {
+        database.getWritableDatabase().delete(NoteDatabase.TABLE_UPLOADS, null, null);
+    }
+
+    private void update(long id, ContentValues values) {
+        database.getWritableDatabase().update(NoteDatabase.TABLE_UPLOADS, values,
+                NoteDatabase.COLUMN_UPLOAD_ID + " = ?", new String[]{String.valueOf(id)});
+    }
+}
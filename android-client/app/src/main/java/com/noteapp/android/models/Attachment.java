@@ -0,0 +1,51 @@
+package com.noteapp.android.models;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * One entry of a note's attachments list, in the same shape the web app stores.
+ */
+public class Attachment {
+    @SerializedName("name")
+    private String name;
+
+    @SerializedName("url")
+    private String url;
+
+    @SerializedName("path")
+    private String path;
+
+    @SerializedName("size")
+    private long size;
+
+    @SerializedName("type")
+    private String type;
+
+    public Attachment(String name, String url, String path, long size, String type) {
+        this.name = name;
+        this.url = url;
+        this.path = path;
+        this.size = size;
+        this.type = type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getType() {
+        return type;
+    }
+}
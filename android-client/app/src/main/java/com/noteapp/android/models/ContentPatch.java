@@ -0,0 +1,91 @@
+package com.noteapp.android.models;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The changed part of a note's content, sent in an update instead of the whole body.
+ * {@code base} is the SHA-256 of the content the edits apply to; the server rejects
+ * the patch with 409 if its copy has a different hash. Offsets are UTF-16 indexes
+ * into the base content, like both Java and JavaScript strings use.
+ */
+public class ContentPatch {
+    @SerializedName("base")
+    private String base;
+
+    @SerializedName("edits")
+    private List<Edit> edits;
+
+    public static class Edit {
+        // Replace base[start, end) with text
+        @SerializedName("start")
+        private int start;
+
+        @SerializedName("end")
+        private int end;
+
+        @SerializedName("text")
+        private String text;
+
+        Edit(int start, int end, String text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+    }
+
+    private ContentPatch(String base, List<Edit> edits) {
+        this.base = base;
+        this.edits = edits;
+    }
+
+    // One edit covering everything between the common prefix and suffix; none if nothing changed
+    public static ContentPatch between(String base, String target) {
+        int limit = Math.min(base.length(), target.length());
+        int prefix = 0;
+        while (prefix < limit && base.charAt(prefix) == target.charAt(prefix)) {
+            prefix++;
+        }
+        // Never cut a surrogate pair; a lone half can't be encoded as UTF-8
+        if (prefix > 0 && Character.isHighSurrogate(base.charAt(prefix - 1))) {
+            prefix--;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && base.charAt(base.length() - 1 - suffix) == target.charAt(target.length() - 1 - suffix)) {
+            suffix++;
+        }
+        if (suffix > 0 && Character.isLowSurrogate(base.charAt(base.length() - suffix))) {
+            suffix--;
+        }
+
+        List<Edit> edits = new ArrayList<>();
+        if (prefix + suffix < base.length() || prefix + suffix < target.length()) {
+            edits.add(new Edit(prefix, base.length() - suffix,
+                    target.substring(prefix, target.length() - suffix)));
+        }
+        return new ContentPatch(sha256(base), edits);
+    }
+
+    public String getBase() {
+        return base;
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -2,7 +2,14 @@ package com.noteapp.android.models;
 
 import com.google.gson.annotations.SerializedName;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
 public class Note {
+    // Must match left(content, 200) in add-notes-preview-column.sql
+    public static final int PREVIEW_LENGTH = 200;
+
     @SerializedName("id")
     private int id;
     
@@ -26,6 +33,17 @@ public class Note {
     
     @SerializedName("file_name")
     private String fileName;
+
+    // Every attached file, including the one in fileUrl; only full notes from the server carry it
+    @SerializedName("attachments")
+    private List<Attachment> attachments;
+
+    // First PREVIEW_LENGTH characters of content; the list view gets this instead of content
+    @SerializedName("preview")
+    private String preview;
+
+    // Saved locally and waiting in the outbox; never sent to the server
+    private transient boolean pending;
     
     // Constructor for creating/updating notes
     public Note(String title, String content, String fileUrl, String fileName) {
@@ -65,6 +83,7 @@ public class Note {
 
     public void setContent(String content) {
         this.content = content;
+        this.preview = null;
     }
 
     public String getUserId() {
@@ -106,5 +125,58 @@ public class Note {
     public void setFileName(String fileName) {
         this.fileName = fileName;
     }
-}
 
+    public List<Attachment> getAttachments() {
+        return attachments != null ? attachments : new ArrayList<>();
+    }
+
+    public String getPreview() {
+        if (preview != null || content == null) {
+            return preview;
+        }
+        // Postgres counts characters, not UTF-16 units
+        return content.codePointCount(0, content.length()) <= PREVIEW_LENGTH
+                ? content : content.substring(0, content.offsetByCodePoints(0, PREVIEW_LENGTH));
+    }
+
+    public void setPreview(String preview) {
+        this.preview = preview;
+    }
+
+    // False for list summaries, which only carry the preview
+    public boolean hasContent() {
+        return content != null;
+    }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    public void setPending(boolean pending) {
+        this.pending = pending;
+    }
+
+    // True if every field shown or stored for this note is equal
+    public boolean hasSameContent(Note other) {
+        return id == other.id
+                && Objects.equals(title, other.title)
+                && Objects.equals(content, other.content)
+                && Objects.equals(userId, other.userId)
+                && Objects.equals(userEmail, other.userEmail)
+                && Objects.equals(createdAt, other.createdAt)
+                && Objects.equals(fileUrl, other.fileUrl)
+                && Objects.equals(fileName, other.fileName);
+    }
+
+    // Like hasSameContent, but comparing previews, so a summary can be checked against a full note
+    public boolean hasSameSummary(Note other) {
+        return id == other.id
+                && Objects.equals(title, other.title)
+                && Objects.equals(getPreview(), other.getPreview())
+                && Objects.equals(userId, other.userId)
+                && Objects.equals(userEmail, other.userEmail)
+                && Objects.equals(createdAt, other.createdAt)
+                && Objects.equals(fileUrl, other.fileUrl)
+                && Objects.equals(fileName, other.fileName);
+    }
+}
@@ -0,0 +1,68 @@
+package com.noteapp.android.models;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A pending note mutation from the offline outbox, as sent to POST /api/notes/batch.
+ */
+public class NoteOperation {
+    public static final String CREATE = "create";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+
+    // Local outbox sequence number, not sent
+    private transient long seq;
+
+    @SerializedName("op")
+    private String op;
+
+    @SerializedName("id")
+    private int noteId;
+
+    @SerializedName("note")
+    private Note note;
+
+    @SerializedName("idempotency_key")
+    private String idempotencyKey;
+
+    // Update only: the content change, sent instead of note.content
+    @SerializedName("patch")
+    private ContentPatch patch;
+
+    public NoteOperation(long seq, String op, int noteId, Note note, String idempotencyKey) {
+        this(seq, op, noteId, note, idempotencyKey, null);
+    }
+
+    public NoteOperation(long seq, String op, int noteId, Note note, String idempotencyKey, ContentPatch patch) {
+        this.seq = seq;
+        this.op = op;
+        this.noteId = noteId;
+        this.note = note;
+        this.idempotencyKey = idempotencyKey;
+        this.patch = patch;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public String getOp() {
+        return op;
+    }
+
+    public int getNoteId() {
+        return noteId;
+    }
+
+    public Note getNote() {
+        return note;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public ContentPatch getPatch() {
+        return patch;
+    }
+}
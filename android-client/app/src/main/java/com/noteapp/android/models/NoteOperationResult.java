@@ -0,0 +1,38 @@
+package com.noteapp.android.models;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Outcome of one {@link NoteOperation} in a batch, in the same order as the request.
+ */
+public class NoteOperationResult {
+    @SerializedName("status")
+    private int status;
+
+    @SerializedName("note")
+    private Note note;
+
+    @SerializedName("error")
+    private String error;
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Note getNote() {
+        return note;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return status >= 200 && status < 300;
+    }
+
+    // Worth retrying later rather than dropping the operation
+    public boolean isTransient() {
+        return status == 0 || status == 408 || status == 429 || status >= 500;
+    }
+}
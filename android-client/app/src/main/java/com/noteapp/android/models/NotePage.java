@@ -0,0 +1,30 @@
+package com.noteapp.android.models;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of GET /api/notes?limit=&cursor=, newest first.
+ */
+public class NotePage {
+    @SerializedName("notes")
+    private List<Note> notes;
+
+    // Opaque; null when this is the last page
+    @SerializedName("next_cursor")
+    private String nextCursor;
+
+    public List<Note> getNotes() {
+        return notes != null ? notes : new ArrayList<>();
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
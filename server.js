@@ -2,6 +2,9 @@ require('dotenv').config();
 const express = require('express');
 const cors = require('cors');
 const path = require('path');
+const fs = require('fs');
+const os = require('os');
+const crypto = require('crypto');
 const multer = require('multer');
 const { createClient } = require('@supabase/supabase-js');
 const admin = require('firebase-admin');
@@ -90,6 +93,12 @@ console.log('💳 DODO Product ID:', dodoProductId ? '✓ Set' : '❌ Missing');
 console.log('🔗 DODO Webhook Key:', dodoWebhookKey ? '✓ Set' : '❌ Missing');
 console.log('📊 Google Analytics ID:', googleAnalyticsId ? '✓ Set' : '❌ Missing');
 
+// Chunked uploads: 'supabase' (default) or 'local' to keep files on disk for testing
+const uploadStorage = process.env.UPLOAD_STORAGE || 'supabase';
+const localUploadDir = path.join(__dirname, 'uploads');
+const uploadSessionDir = path.join(os.tmpdir(), 'noteapp-upload-sessions');
+console.log('📤 Upload storage:', uploadStorage);
+
 const supabase = createClient(supabaseUrl, supabaseKey);
 const supabaseService = createClient(supabaseUrl, supabaseServiceKey);
 
@@ -98,6 +107,9 @@ app.use(cors());
 app.use(express.json({ limit: '50mb' })); // Increase limit for file uploads
 app.use(express.urlencoded({ extended: true, limit: '50mb' }));
 app.use(express.static('public'));
+if (uploadStorage === 'local') {
+    app.use('/uploads', express.static(localUploadDir));
+}
 
 // Configure multer for multipart file uploads (for Android app)
 const upload = multer({
@@ -105,6 +117,13 @@ const upload = multer({
     limits: { fileSize: 10 * 1024 * 1024 } // 10MB limit
 });
 
+// Per-user GET responses may be cached by the client but must be revalidated.
+// Express adds an ETag to res.json() bodies and answers a matching
+// If-None-Match with 304 Not Modified, so an unchanged refresh skips the body.
+function setRevalidateHeaders(res) {
+    res.set('Cache-Control', 'private, no-cache');
+}
+
 // Auth middleware
 async function authenticateUser(req, res, next) {
     try {
@@ -136,6 +155,77 @@ async function authenticateUser(req, res, next) {
     }
 }
 
+// Idempotency-Key support for POST endpoints the Android client retries.
+// The first response for a (user, key) pair is remembered for a while and
+// replayed to retries; a retry that arrives while the original is still
+// running waits for it instead of creating a duplicate. An entry settles when
+// the response finishes or the connection closes, whichever comes first, or
+// after IDEMPOTENCY_PENDING_MS so a stuck handler can't hold its retries forever.
+// Settling without a JSON body (5xx, aborted, timed out) forgets the key and
+// waiting retries run the request themselves.
+const IDEMPOTENCY_TTL_MS = 10 * 60 * 1000;
+const IDEMPOTENCY_PENDING_MS = 60 * 1000;
+const idempotentResponses = new Map();
+
+function idempotent(req, res, next) {
+    const key = req.headers['idempotency-key'];
+    if (!key) {
+        return next();
+    }
+    
+    const cacheKey = `${req.user.uid}:${key}`;
+    const existing = idempotentResponses.get(cacheKey);
+    if (existing) {
+        console.log('🔁 Replaying idempotent response for key:', key);
+        return existing.done.then(result => result
+            ? res.status(result.status).json(result.body)
+            : idempotent(req, res, next));
+    }
+    
+    let resolveDone;
+    const entry = { done: new Promise(resolve => { resolveDone = resolve; }) };
+    idempotentResponses.set(cacheKey, entry);
+    
+    let response = null;
+    let settled = false;
+    const settle = () => {
+        if (settled) {
+            return;
+        }
+        settled = true;
+        clearTimeout(timeout);
+        if (response && response.status < 500) {
+            setTimeout(() => {
+                if (idempotentResponses.get(cacheKey) === entry) {
+                    idempotentResponses.delete(cacheKey);
+                }
+            }, IDEMPOTENCY_TTL_MS).unref();
+            resolveDone(response);
+        } else {
+            // Let retries of failed attempts run again
+            if (idempotentResponses.get(cacheKey) === entry) {
+                idempotentResponses.delete(cacheKey);
+            }
+            resolveDone(null);
+        }
+    };
+    const timeout = setTimeout(() => {
+        console.warn('⏱️ Idempotent request still running, releasing key:', key);
+        settle();
+    }, IDEMPOTENCY_PENDING_MS);
+    timeout.unref();
+    
+    const originalJson = res.json.bind(res);
+    res.json = (body) => {
+        response = { status: res.statusCode, body };
+        return originalJson(body);
+    };
+    res.on('finish', settle);
+    res.on('close', settle);
+    
+    next();
+}
+
 // API Routes
 
 // Get Firebase configuration for frontend
@@ -672,6 +762,7 @@ app.get('/api/user/subscription-status', authenticateUser, async (req, res) => {
         
         console.log('📊 Result: isPremium =', isPremium);
         
+        setRevalidateHeaders(res);
         res.json({
             isPremium: isPremium,
             subscription: subscription || null,
@@ -757,21 +848,112 @@ app.get('/payment/cancel', async (req, res) => {
     }
 });
 
-// Get all notes for authenticated user
+// Keyset pagination for GET /api/notes. The cursor is the (created_at, id) of the
+// last note on the previous page, so each page is an index range scan no matter
+// how deep the user scrolls, and inserts/deletes never shift page boundaries.
+const MAX_NOTES_PAGE_SIZE = 100;
+
+// ?view=summary returns only what the list shows: a 200-character preview
+// (generated column, see add-notes-preview-column.sql) instead of the full content.
+// The full note is fetched by id when it is opened.
+const NOTE_SUMMARY_COLUMNS = 'id, title, preview, user_id, user_email, created_at, file_url, file_name';
+
+function noteColumns(req) {
+    return req.query.view === 'summary' ? NOTE_SUMMARY_COLUMNS : '*';
+}
+
+function encodeNotesCursor(note) {
+    return Buffer.from(JSON.stringify([note.created_at, note.id])).toString('base64url');
+}
+
+// created_at as Postgres returns it, e.g. 2024-05-01T09:30:00.123456+00:00. The cursor
+// ends up inside a PostgREST .or() filter, so nothing else may get through
+const CURSOR_TIMESTAMP = /^\d{4}-\d{2}-\d{2}T\d{2}:\d{2}:\d{2}(\.\d{1,6})?(Z|[+-]\d{2}:\d{2})$/;
+
+function decodeNotesCursor(cursor) {
+    try {
+        const [createdAt, id] = JSON.parse(Buffer.from(cursor, 'base64url').toString('utf8'));
+        if (typeof createdAt !== 'string' || !Number.isInteger(id)) return null;
+        if (!CURSOR_TIMESTAMP.test(createdAt) || Number.isNaN(Date.parse(createdAt))) return null;
+        return { createdAt, id };
+    } catch (error) {
+        return null;
+    }
+}
+
+// Get notes for authenticated user: everything, or one page when ?limit= is given
 app.get('/api/notes', authenticateUser, async (req, res) => {
+    try {
+        if (req.query.limit === undefined) {
+            const { data, error } = await supabase
+                .from('notes')
+                .select(noteColumns(req))
+                .eq('user_id', req.user.uid)
+                .order('created_at', { ascending: false });
+            
+            if (error) throw error;
+            
+            setRevalidateHeaders(res);
+            return res.json(data);
+        }
+
+        const limit = parseInt(req.query.limit, 10);
+        if (!Number.isInteger(limit) || limit < 1 || limit > MAX_NOTES_PAGE_SIZE) {
+            return res.status(400).json({ error: `limit must be between 1 and ${MAX_NOTES_PAGE_SIZE}` });
+        }
+
+        let query = supabase
+            .from('notes')
+            .select(noteColumns(req))
+            .eq('user_id', req.user.uid)
+            .order('created_at', { ascending: false })
+            .order('id', { ascending: false })
+            .limit(limit + 1);
+
+        if (req.query.cursor) {
+            const after = decodeNotesCursor(req.query.cursor);
+            if (!after) {
+                return res.status(400).json({ error: 'Invalid cursor' });
+            }
+            query = query.or(`created_at.lt."${after.createdAt}",`
+                + `and(created_at.eq."${after.createdAt}",id.lt.${after.id})`);
+        }
+
+        const { data, error } = await query;
+        if (error) throw error;
+
+        // One extra row tells us whether another page exists without a count query
+        const notes = data.slice(0, limit);
+        const nextCursor = data.length > limit ? encodeNotesCursor(notes[notes.length - 1]) : null;
+
+        setRevalidateHeaders(res);
+        res.json({ notes, next_cursor: nextCursor });
+    } catch (error) {
+        console.error('Error fetching notes:', error);
+        res.status(500).json({ error: 'Failed to fetch notes' });
+    }
+});
+
+// Get a single note, with its full content
+app.get('/api/notes/:id', authenticateUser, async (req, res) => {
     try {
         const { data, error } = await supabase
             .from('notes')
             .select('*')
-            .eq('user_id', req.user.uid)
-            .order('created_at', { ascending: false });
+            .eq('id', req.params.id)
+            .eq('user_id', req.user.uid)  // Ensure user owns the note
+            .maybeSingle();
         
         if (error) throw error;
+        if (!data) {
+            return res.status(404).json({ error: 'Note not found' });
+        }
         
+        setRevalidateHeaders(res);
         res.json(data);
     } catch (error) {
-        console.error('Error fetching notes:', error);
-        res.status(500).json({ error: 'Failed to fetch notes' });
+        console.error('Error fetching note:', error);
+        res.status(500).json({ error: 'Failed to fetch note' });
     }
 });
 
@@ -782,6 +964,17 @@ app.post('/api/upload', authenticateUser, upload.single('file'), async (req, res
             return res.status(400).json({ error: 'No file provided' });
         }
         
+        // The bytes are already here, but an identical file needn't be stored twice
+        const sha256 = crypto.createHash('sha256').update(req.file.buffer).digest('hex');
+        const existing = await reuseUploadedBlob(req.user.uid, sha256);
+        if (existing) {
+            return res.json({
+                fileUrl: existing.file_url,
+                fileName: req.file.originalname,
+                filePath: existing.file_path
+            });
+        }
+        
         const timestamp = Date.now();
         const sanitizedFileName = req.file.originalname.replace(/[^a-zA-Z0-9.-]/g, '_');
         const filePath = `${req.user.uid}/files/${timestamp}-${sanitizedFileName}`;
@@ -810,6 +1003,7 @@ app.post('/api/upload', authenticateUser, upload.single('file'), async (req, res
         
         console.log('✅ File uploaded successfully');
         console.log('   Public URL:', urlData.publicUrl);
+        await recordUploadedBlob(req.user.uid, sha256, req.file.size, filePath, urlData.publicUrl);
         
         res.json({
             fileUrl: urlData.publicUrl,
@@ -822,6 +1016,384 @@ app.post('/api/upload', authenticateUser, upload.single('file'), async (req, res
     }
 });
 
+// Resumable chunked uploads (Android app)
+//
+// POST /api/uploads                     -> start a session, returns uploadId + chunkSize
+// GET  /api/uploads/:id                 -> which chunks the server already has
+// PUT  /api/uploads/:id/chunks/:index   -> raw chunk bytes, written in place
+// POST /api/uploads/:id/complete        -> assemble and push to storage
+// GET  /api/uploads/by-hash/:sha256     -> an already stored copy of the same bytes
+// POST /api/uploads/by-hash/:sha256/reuse -> the same, used in place of uploading it
+//
+// Chunks are streamed to a temp file at their offset, so server memory stays
+// bounded by the chunk size and an interrupted upload resumes from the first
+// missing chunk.
+const MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+// Smaller chunks would mean thousands of requests and session entries per file
+const MIN_CHUNK_SIZE = 64 * 1024;
+const MAX_CHUNKED_UPLOAD_SIZE = parseInt(process.env.MAX_UPLOAD_BYTES || `${100 * 1024 * 1024}`, 10);
+const UPLOAD_SESSION_TTL_MS = 24 * 60 * 60 * 1000;
+const uploadSessions = new Map();
+
+fs.mkdirSync(uploadSessionDir, { recursive: true });
+
+function sessionPaths(uploadId) {
+    return {
+        meta: path.join(uploadSessionDir, `${uploadId}.json`),
+        data: path.join(uploadSessionDir, `${uploadId}.part`)
+    };
+}
+
+async function loadUploadSession(uploadId, uid) {
+    if (!/^[a-f0-9-]{36}$/.test(uploadId)) {
+        return null;
+    }
+    let session = uploadSessions.get(uploadId);
+    if (!session) {
+        try {
+            session = JSON.parse(await fs.promises.readFile(sessionPaths(uploadId).meta, 'utf8'));
+            uploadSessions.set(uploadId, session);
+        } catch (error) {
+            return null;
+        }
+    }
+    return session.userId === uid ? session : null;
+}
+
+// Pending meta file write per upload, so concurrent chunk requests can't interleave them
+const uploadSessionWrites = new Map();
+
+async function saveUploadSession(session) {
+    uploadSessions.set(session.uploadId, session);
+    const previous = uploadSessionWrites.get(session.uploadId) || Promise.resolve();
+    const write = previous.catch(() => {}).then(async () => {
+        // Written whole then renamed, so a crash leaves the previous file intact
+        const { meta } = sessionPaths(session.uploadId);
+        await fs.promises.writeFile(`${meta}.tmp`, JSON.stringify(session));
+        await fs.promises.rename(`${meta}.tmp`, meta);
+    });
+    uploadSessionWrites.set(session.uploadId, write);
+    try {
+        await write;
+    } finally {
+        if (uploadSessionWrites.get(session.uploadId) === write) {
+            uploadSessionWrites.delete(session.uploadId);
+        }
+    }
+}
+
+async function deleteUploadSession(uploadId) {
+    uploadSessions.delete(uploadId);
+    // A write landing after the delete would bring the session back
+    await (uploadSessionWrites.get(uploadId) || Promise.resolve()).catch(() => {});
+    const paths = sessionPaths(uploadId);
+    await Promise.all([
+        fs.promises.rm(paths.meta, { force: true }),
+        fs.promises.rm(paths.data, { force: true })
+    ]);
+}
+
+function uploadSessionStatus(session) {
+    return {
+        uploadId: session.uploadId,
+        fileSize: session.fileSize,
+        chunkSize: session.chunkSize,
+        chunkCount: session.chunkCount,
+        receivedChunks: session.receivedChunks
+    };
+}
+
+// Content-addressed dedup: each user's uploads are indexed by SHA-256 in
+// attachment_blobs, so a client can ask for an existing copy before sending
+// the bytes, and identical files are stored once.
+const SHA256_PATTERN = /^[a-f0-9]{64}$/;
+
+async function findUploadedBlob(uid, sha256) {
+    const { data, error } = await supabase
+        .from('attachment_blobs')
+        .select('*')
+        .eq('user_id', uid)
+        .eq('sha256', sha256)
+        .maybeSingle();
+    if (error) {
+        // Dedup is an optimization; without the table, uploads just go through
+        console.error('Error looking up attachment blob:', error);
+        return null;
+    }
+    return data;
+}
+
+async function recordUploadedBlob(uid, sha256, fileSize, filePath, fileUrl) {
+    const { error } = await supabase
+        .from('attachment_blobs')
+        .upsert({
+            user_id: uid,
+            sha256,
+            file_size: fileSize,
+            file_path: filePath,
+            file_url: fileUrl
+        }, { onConflict: 'user_id,sha256', ignoreDuplicates: true });
+    if (error) {
+        console.error('Error recording attachment blob:', error);
+    }
+}
+
+// Claims the stored copy for another attachment and returns it, or null if there is none.
+// The count is one atomic UPDATE (add-attachment-blob-reuse-function.sql)
+async function reuseUploadedBlob(uid, sha256) {
+    const { data, error } = await supabase
+        .rpc('count_attachment_blob_reuse', { p_user_id: uid, p_sha256: sha256 })
+        .maybeSingle();
+    if (error) {
+        // Reuse still works without the function, it just goes uncounted
+        console.error('Error counting attachment reuse:', error);
+        return findUploadedBlob(uid, sha256);
+    }
+    if (data) {
+        console.log('♻️ Reused upload', data.file_path, '-', data.file_size, 'bytes saved');
+    }
+    return data;
+}
+
+function sha256OfFile(filePath) {
+    return new Promise((resolve, reject) => {
+        const hash = crypto.createHash('sha256');
+        fs.createReadStream(filePath)
+            .on('data', (chunk) => hash.update(chunk))
+            .on('error', reject)
+            .on('end', () => resolve(hash.digest('hex')));
+    });
+}
+
+// Store an assembled file and return its public URL
+async function storeUploadedFile(filePath, sourcePath, contentType) {
+    if (uploadStorage === 'local') {
+        const target = path.join(localUploadDir, filePath);
+        await fs.promises.mkdir(path.dirname(target), { recursive: true });
+        await fs.promises.rename(sourcePath, target);
+        return `/uploads/${filePath}`;
+    }
+    
+    const { error } = await supabase.storage
+        .from('Note app')
+        .upload(filePath, fs.createReadStream(sourcePath), {
+            contentType,
+            upsert: false,
+            duplex: 'half'
+        });
+    if (error) {
+        throw error;
+    }
+    const { data: urlData } = supabase.storage
+        .from('Note app')
+        .getPublicUrl(filePath);
+    return urlData.publicUrl;
+}
+
+app.get('/api/uploads/by-hash/:sha256', authenticateUser, async (req, res) => {
+    try {
+        const sha256 = req.params.sha256.toLowerCase();
+        if (!SHA256_PATTERN.test(sha256)) {
+            return res.status(400).json({ error: 'Invalid SHA-256' });
+        }
+        const blob = await findUploadedBlob(req.user.uid, sha256);
+        if (!blob) {
+            return res.status(404).json({ error: 'Not uploaded' });
+        }
+        res.json({
+            fileUrl: blob.file_url,
+            filePath: blob.file_path,
+            fileSize: blob.file_size
+        });
+    } catch (error) {
+        console.error('Error looking up upload:', error);
+        res.status(500).json({ error: 'Failed to look up upload: ' + error.message });
+    }
+});
+
+// Only this counts toward reuse_count/bytes_saved; the GET above is a plain lookup
+app.post('/api/uploads/by-hash/:sha256/reuse', authenticateUser, async (req, res) => {
+    try {
+        const sha256 = req.params.sha256.toLowerCase();
+        if (!SHA256_PATTERN.test(sha256)) {
+            return res.status(400).json({ error: 'Invalid SHA-256' });
+        }
+        const blob = await reuseUploadedBlob(req.user.uid, sha256);
+        if (!blob) {
+            return res.status(404).json({ error: 'Not uploaded' });
+        }
+        res.json({
+            fileUrl: blob.file_url,
+            filePath: blob.file_path,
+            fileSize: blob.file_size
+        });
+    } catch (error) {
+        console.error('Error reusing upload:', error);
+        res.status(500).json({ error: 'Failed to reuse upload: ' + error.message });
+    }
+});
+
+app.post('/api/uploads', authenticateUser, async (req, res) => {
+    try {
+        const { fileName, fileSize, mimeType } = req.body;
+        const sha256 = typeof req.body.sha256 === 'string' ? req.body.sha256.toLowerCase() : null;
+        const requestedChunkSize = req.body.chunkSize === undefined
+            ? MAX_CHUNK_SIZE : Number(req.body.chunkSize);
+        
+        if (!Number.isInteger(requestedChunkSize) || requestedChunkSize < MIN_CHUNK_SIZE) {
+            return res.status(400).json({ error: `chunkSize must be an integer of at least ${MIN_CHUNK_SIZE} bytes` });
+        }
+        const chunkSize = Math.min(requestedChunkSize, MAX_CHUNK_SIZE);
+        
+        if (!fileName || !Number.isInteger(fileSize) || fileSize <= 0) {
+            return res.status(400).json({ error: 'fileName and a positive fileSize are required' });
+        }
+        if (fileSize > MAX_CHUNKED_UPLOAD_SIZE) {
+            return res.status(413).json({ error: 'File too large' });
+        }
+        if (sha256 !== null && !SHA256_PATTERN.test(sha256)) {
+            return res.status(400).json({ error: 'Invalid SHA-256' });
+        }
+        
+        const session = {
+            uploadId: crypto.randomUUID(),
+            userId: req.user.uid,
+            fileName,
+            fileSize,
+            mimeType: mimeType || 'application/octet-stream',
+            sha256,
+            chunkSize,
+            chunkCount: Math.ceil(fileSize / chunkSize),
+            receivedChunks: [],
+            createdAt: Date.now()
+        };
+        
+        // Preallocate so chunks can be written at their offset in any order
+        const handle = await fs.promises.open(sessionPaths(session.uploadId).data, 'w');
+        await handle.truncate(fileSize);
+        await handle.close();
+        await saveUploadSession(session);
+        
+        console.log('📤 Started chunked upload:', session.uploadId, fileName, fileSize, 'bytes');
+        res.status(201).json(uploadSessionStatus(session));
+    } catch (error) {
+        console.error('Error starting upload:', error);
+        res.status(500).json({ error: 'Failed to start upload: ' + error.message });
+    }
+});
+
+app.get('/api/uploads/:id', authenticateUser, async (req, res) => {
+    const session = await loadUploadSession(req.params.id, req.user.uid);
+    if (!session) {
+        return res.status(404).json({ error: 'Upload not found' });
+    }
+    res.json(uploadSessionStatus(session));
+});
+
+app.put('/api/uploads/:id/chunks/:index',
+    authenticateUser,
+    express.raw({ type: () => true, limit: MAX_CHUNK_SIZE }),
+    async (req, res) => {
+        try {
+            const session = await loadUploadSession(req.params.id, req.user.uid);
+            if (!session) {
+                return res.status(404).json({ error: 'Upload not found' });
+            }
+            
+            const index = parseInt(req.params.index, 10);
+            if (!Number.isInteger(index) || index < 0 || index >= session.chunkCount) {
+                return res.status(400).json({ error: 'Invalid chunk index' });
+            }
+            
+            const offset = index * session.chunkSize;
+            const expectedLength = Math.min(session.chunkSize, session.fileSize - offset);
+            const chunk = Buffer.isBuffer(req.body) ? req.body : Buffer.alloc(0);
+            if (chunk.length !== expectedLength) {
+                return res.status(400).json({
+                    error: `Chunk ${index} must be ${expectedLength} bytes, got ${chunk.length}`
+                });
+            }
+            
+            const handle = await fs.promises.open(sessionPaths(session.uploadId).data, 'r+');
+            try {
+                await handle.write(chunk, 0, chunk.length, offset);
+            } finally {
+                await handle.close();
+            }
+            
+            if (!session.receivedChunks.includes(index)) {
+                session.receivedChunks.push(index);
+                session.receivedChunks.sort((a, b) => a - b);
+                await saveUploadSession(session);
+            }
+            
+            res.json(uploadSessionStatus(session));
+        } catch (error) {
+            console.error('Error writing upload chunk:', error);
+            res.status(500).json({ error: 'Failed to store chunk: ' + error.message });
+        }
+    });
+
+app.post('/api/uploads/:id/complete', authenticateUser, async (req, res) => {
+    try {
+        const session = await loadUploadSession(req.params.id, req.user.uid);
+        if (!session) {
+            return res.status(404).json({ error: 'Upload not found' });
+        }
+        if (session.receivedChunks.length !== session.chunkCount) {
+            return res.status(409).json({
+                error: 'Upload incomplete',
+                ...uploadSessionStatus(session)
+            });
+        }
+        
+        // Never index a copy under a hash it doesn't have
+        const dataPath = sessionPaths(session.uploadId).data;
+        if (session.sha256 && await sha256OfFile(dataPath) !== session.sha256) {
+            await deleteUploadSession(session.uploadId);
+            return res.status(422).json({ error: 'Uploaded data does not match its SHA-256' });
+        }
+        
+        const timestamp = Date.now();
+        const sanitizedFileName = session.fileName.replace(/[^a-zA-Z0-9.-]/g, '_');
+        const filePath = `${req.user.uid}/files/${timestamp}-${sanitizedFileName}`;
+        
+        const fileUrl = await storeUploadedFile(filePath, dataPath, session.mimeType);
+        await deleteUploadSession(session.uploadId);
+        if (session.sha256) {
+            await recordUploadedBlob(req.user.uid, session.sha256, session.fileSize, filePath, fileUrl);
+        }
+        
+        console.log('✅ Chunked upload complete:', filePath);
+        
+        res.json({
+            fileUrl,
+            fileName: session.fileName,
+            filePath
+        });
+    } catch (error) {
+        console.error('Error completing upload:', error);
+        res.status(500).json({ error: 'Failed to complete upload: ' + error.message });
+    }
+});
+
+// Drop sessions that were abandoned mid-way
+setInterval(async () => {
+    try {
+        const now = Date.now();
+        for (const file of await fs.promises.readdir(uploadSessionDir)) {
+            const fullPath = path.join(uploadSessionDir, file);
+            const stat = await fs.promises.stat(fullPath);
+            if (now - stat.mtimeMs > UPLOAD_SESSION_TTL_MS) {
+                await fs.promises.rm(fullPath, { force: true });
+                uploadSessions.delete(path.basename(file, path.extname(file)));
+            }
+        }
+    } catch (error) {
+        console.error('Error cleaning upload sessions:', error);
+    }
+}, 60 * 60 * 1000).unref();
+
 // Upload file to Supabase Storage (base64, for web app)
 app.post('/api/upload/base64', authenticateUser, async (req, res) => {
     try {
@@ -887,7 +1459,7 @@ app.post('/api/upload/base64', authenticateUser, async (req, res) => {
 });
 
 // Create a new note for authenticated user
-app.post('/api/notes', authenticateUser, async (req, res) => {
+app.post('/api/notes', authenticateUser, idempotent, async (req, res) => {
     try {
         const { title, content, attachments } = req.body;
         
@@ -929,6 +1501,177 @@ app.post('/api/notes', authenticateUser, async (req, res) => {
     }
 });
 
+// Replay a batch of queued note mutations from the Android client's offline outbox.
+// Operations run in order and each gets its own result, so one bad operation does
+// not fail the rest. Creates carry an idempotency key and share the dedupe map with
+// POST /api/notes, so a batch resent after a dropped response creates nothing twice.
+const MAX_BATCH_OPERATIONS = 100;
+
+function noteFields(note) {
+    const fields = { title: note.title, content: note.content };
+    const fileUrl = note.file_url ?? note.fileUrl;
+    const fileName = note.file_name ?? note.fileName;
+    if (fileUrl !== undefined) fields.file_url = fileUrl;
+    if (fileName !== undefined) fields.file_name = fileName;
+    return fields;
+}
+
+// An update of a long note may carry `patch: { base, edits: [{ start, end, text }] }`
+// instead of note.content: base is the SHA-256 of the content the edits were made
+// against, and each edit replaces content[start, end) (UTF-16 offsets, ascending,
+// non-overlapping). A base that no longer matches gets a 409 and the client resends
+// the full content.
+function applyContentPatch(content, edits) {
+    if (!Array.isArray(edits)) return null;
+    let result = '';
+    let position = 0;
+    for (const edit of edits) {
+        const { start, end, text } = edit || {};
+        if (!Number.isInteger(start) || !Number.isInteger(end) || typeof text !== 'string'
+                || start < position || end < start || end > content.length) {
+            return null;
+        }
+        result += content.slice(position, start) + text;
+        position = end;
+    }
+    return result + content.slice(position);
+}
+
+async function applyNoteUpdate(user, id, note, patch) {
+    if (!note || !note.title || (!patch && !note.content)) {
+        return { status: 400, error: 'Title and content are required' };
+    }
+    const fields = noteFields(note);
+    if (patch) {
+        const { data: current, error: readError } = await supabase
+            .from('notes')
+            .select('content')
+            .eq('id', id)
+            .eq('user_id', user.uid)
+            .maybeSingle();
+        if (readError) throw readError;
+        if (!current) return { status: 404, error: 'Note not found' };
+
+        const base = crypto.createHash('sha256').update(current.content || '', 'utf8').digest('hex');
+        if (base !== patch.base) {
+            return { status: 409, error: 'Note content has changed on the server' };
+        }
+        const content = applyContentPatch(current.content || '', patch.edits);
+        if (content === null) return { status: 400, error: 'Invalid patch' };
+        if (!content) return { status: 400, error: 'Title and content are required' };
+        fields.content = content;
+    }
+    let query = supabase
+        .from('notes')
+        .update(fields)
+        .eq('id', id)
+        .eq('user_id', user.uid);
+    if (patch) {
+        // Only if nothing was written since the read above (add-notes-content-hash-column.sql)
+        query = query.eq('content_sha256', patch.base);
+    }
+    const { data, error } = await query.select().maybeSingle();
+    if (error) throw error;
+    if (!data) {
+        return patch
+            ? { status: 409, error: 'Note content has changed on the server' }
+            : { status: 404, error: 'Note not found' };
+    }
+    return { status: 200, note: data };
+}
+
+async function applyNoteOperation(user, operation) {
+    const { op, id, note, patch } = operation || {};
+
+    if (op === 'create') {
+        if (!note || !note.title || !note.content) {
+            return { status: 400, error: 'Title and content are required' };
+        }
+        const { data, error } = await supabase
+            .from('notes')
+            .insert([{ ...noteFields(note), user_id: user.uid, user_email: user.email }])
+            .select()
+            .single();
+        if (error) throw error;
+        return { status: 201, note: data };
+    }
+
+    if (op === 'update') {
+        return applyNoteUpdate(user, id, note, patch);
+    }
+
+    if (op === 'delete') {
+        const { error } = await supabase
+            .from('notes')
+            .delete()
+            .eq('id', id)
+            .eq('user_id', user.uid);
+        if (error) throw error;
+        return { status: 200 };
+    }
+
+    return { status: 400, error: 'Unknown operation: ' + op };
+}
+
+async function runNoteOperation(user, operation) {
+    const key = operation && operation.op === 'create' ? operation.idempotency_key : null;
+    const cacheKey = key ? `${user.uid}:${key}` : null;
+    const existing = cacheKey && idempotentResponses.get(cacheKey);
+    if (existing) {
+        const settled = await existing.done;
+        if (!settled) {
+            // The original failed or never answered; run it ourselves
+            return runNoteOperation(user, operation);
+        }
+        const { status, body } = settled;
+        return status < 300 ? { status, note: body } : { status, error: body && body.error };
+    }
+
+    let resolveDone;
+    if (cacheKey) {
+        idempotentResponses.set(cacheKey, { done: new Promise(resolve => { resolveDone = resolve; }) });
+    }
+
+    let result;
+    try {
+        result = await applyNoteOperation(user, operation);
+    } catch (error) {
+        console.error('Error applying note operation:', error);
+        result = { status: 500, error: 'Failed to ' + operation.op + ' note: ' + error.message };
+    }
+
+    if (cacheKey) {
+        if (result.status >= 500) {
+            idempotentResponses.delete(cacheKey);
+            resolveDone(null);
+        } else {
+            setTimeout(() => idempotentResponses.delete(cacheKey), IDEMPOTENCY_TTL_MS).unref();
+            resolveDone({ status: result.status, body: result.note || { error: result.error } });
+        }
+    }
+    return result;
+}
+
+app.post('/api/notes/batch', authenticateUser, async (req, res) => {
+    const { operations } = req.body;
+
+    if (!Array.isArray(operations)) {
+        return res.status(400).json({ error: 'operations must be an array' });
+    }
+    if (operations.length > MAX_BATCH_OPERATIONS) {
+        return res.status(400).json({ error: `At most ${MAX_BATCH_OPERATIONS} operations per batch` });
+    }
+
+    console.log('📦 Replaying', operations.length, 'note operations for user:', req.user.email);
+
+    const results = [];
+    for (const operation of operations) {
+        results.push(await runNoteOperation(req.user, operation));
+    }
+
+    res.json({ results });
+});
+
 // Update note (full update)
 app.put('/api/notes/:id', authenticateUser, async (req, res) => {
     try {
@@ -967,26 +1710,63 @@ app.put('/api/notes/:id', authenticateUser, async (req, res) => {
     }
 });
 
-// Update note attachments (partial update)
+// Partial update of a note's attachments:
+//   attachments        -> replace the whole list (web app)
+//   attachment         -> append one entry, unless one with the same url is there
+//   fileUrl / fileName -> set the primary attachment shown in the Android list
+// Appending reads then writes the list, so a client should send one PATCH per
+// note at a time (the Android uploader does).
 app.patch('/api/notes/:id', authenticateUser, async (req, res) => {
     try {
         const noteId = req.params.id;
-        const { attachments } = req.body;
+        const { attachments, attachment, fileUrl, fileName } = req.body;
         
-        console.log('📝 Updating note ID:', noteId, 'with', attachments?.length || 0, 'attachments');
+        const updateData = {};
+        if (attachments !== undefined) updateData.attachments = attachments;
+        if (fileUrl !== undefined) updateData.file_url = fileUrl;
+        if (fileName !== undefined) updateData.file_name = fileName;
+        
+        if (attachment) {
+            if (!attachment.url || !attachment.name) {
+                return res.status(400).json({ error: 'attachment needs a url and a name' });
+            }
+            const { data: current, error: readError } = await supabase
+                .from('notes')
+                .select('attachments')
+                .eq('id', noteId)
+                .eq('user_id', req.user.uid)
+                .maybeSingle();
+            if (readError) throw readError;
+            if (!current) {
+                return res.status(404).json({ error: 'Note not found' });
+            }
+            const list = Array.isArray(updateData.attachments) ? updateData.attachments
+                : Array.isArray(current.attachments) ? current.attachments : [];
+            updateData.attachments = list.some((existing) => existing.url === attachment.url)
+                ? list : [...list, attachment];
+        }
+        
+        if (Object.keys(updateData).length === 0) {
+            return res.status(400).json({ error: 'Nothing to update' });
+        }
+        
+        console.log('📝 Patching note ID:', noteId, 'fields:', Object.keys(updateData).join(', '));
         
         const { data, error } = await supabase
             .from('notes')
-            .update({ attachments })
+            .update(updateData)
             .eq('id', noteId)
             .eq('user_id', req.user.uid)  // Ensure user owns the note
             .select()
-            .single();
+            .maybeSingle();
         
         if (error) {
             console.error('❌ Supabase update error:', error);
             throw error;
         }
+        if (!data) {
+            return res.status(404).json({ error: 'Note not found' });
+        }
         
         console.log('✅ Note updated with attachments');
         